@@ -0,0 +1,48 @@
+#!/bin/sh
+# Builds build/cli.jar with the Gradle build and records the class-data-sharing archive
+# build/cli.jsa used by cli.sh.
+#
+# The archive is recorded by a training run of the commonly used commands: the JVM stores the
+# parsed and verified form of every class that run loaded, and later runs map it in instead of
+# loading those classes from the jar again. Rebuild it whenever the sources or the JDK change;
+# a stale archive is ignored by the JVM (with a warning) rather than used.
+set -e
+
+ROOT=$(cd "$(dirname "$0")" && pwd)
+BUILD="$ROOT/build"
+JAVA=${JAVA_HOME:+$JAVA_HOME/bin/}java
+GRADLE=${GRADLE:-gradle}
+
+# AppCDS only archives classes loaded from jars, not from class directories
+rm -f "$BUILD/cli.jsa"
+"$GRADLE" -q -p "$ROOT" jar
+
+WORK=$(mktemp -d)
+trap 'rm -rf "$WORK"' EXIT
+cd "$WORK"
+"$JAVA" -XX:ArchiveClassesAtExit="$BUILD/cli.jsa" -jar "$BUILD/cli.jar" -f - > /dev/null 2>&1 <<'SCRIPT'
+echo training
+pwd
+mkdir dir
+touch dir/a.txt
+echo one two three > dir/a.txt
+echo four >> dir/a.txt
+cat dir/a.txt
+wc dir/a.txt
+ls -l
+du -s dir
+grep two dir/a.txt
+cat dir/a.txt | grep four
+cp dir/a.txt dir/b.txt
+cp -r dir copy
+zip -r dir.zip dir
+unzip dir.zip out
+hash dir/a.txt
+stats
+rm dir/b.txt
+rm -r copy out
+cd dir
+cd ..
+exit
+SCRIPT
+echo "Built $BUILD/cli.jar and $BUILD/cli.jsa"
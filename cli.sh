@@ -0,0 +1,6 @@
+#!/bin/sh
+# Starts the interpreter from build/cli.jar with the class-data-sharing archive made by
+# build-cds.sh; arguments are passed on to Main (e.g. "-f script.txt").
+ROOT=$(cd "$(dirname "$0")" && pwd)
+JAVA=${JAVA_HOME:+$JAVA_HOME/bin/}java
+exec "$JAVA" -XX:SharedArchiveFile="$ROOT/build/cli.jsa" -Xshare:auto -jar "$ROOT/build/cli.jar" "$@"
@@ -0,0 +1,113 @@
+package bench;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * The {@code Cli} class runs command lines on an interpreter {@code Terminal} whose output is
+ * counted and dropped. The interpreter lives in the unnamed package, which JMH does not allow
+ * benchmarks in and which code in a named package cannot refer to, so its classes are reached
+ * by name through method handles.
+ */
+final class Cli {
+
+    private static final MethodHandle NEW_TERMINAL;
+    private static final MethodHandle PARSER;
+    private static final MethodHandle PARSE;
+    private static final MethodHandle CHOOSE_COMMAND_ACTION;
+    private static final MethodHandle SYNC_REDIRECTS;
+
+    static {
+        try {
+            Class<?> terminal = Class.forName("Terminal");
+            Class<?> parser = Class.forName("Parser");
+            Class<?> redirects = Class.forName("RedirectWriter");
+            // Terminal.parser is package-private; the private lookup may read it since both
+            // sides are in the unnamed module
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(terminal, MethodHandles.lookup());
+            NEW_TERMINAL = lookup.findConstructor(terminal, MethodType.methodType(void.class, InputStream.class, PrintStream.class))
+                    .asType(MethodType.methodType(Object.class, InputStream.class, PrintStream.class));
+            PARSER = lookup.findGetter(terminal, "parser", parser)
+                    .asType(MethodType.methodType(Object.class, Object.class));
+            PARSE = lookup.findVirtual(parser, "parse", MethodType.methodType(boolean.class, String.class))
+                    .asType(MethodType.methodType(boolean.class, Object.class, String.class));
+            CHOOSE_COMMAND_ACTION = lookup.findVirtual(terminal, "chooseCommandAction", MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(void.class, Object.class));
+            Object shared = lookup.findStatic(redirects, "shared", MethodType.methodType(redirects)).invoke();
+            SYNC_REDIRECTS = lookup.findVirtual(redirects, "sync", MethodType.methodType(void.class)).bindTo(shared);
+        } catch (Throwable e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // Counts what the commands print, so a benchmark can return it and nothing is optimised away
+    private static class Sink extends OutputStream {
+        long written;
+
+        @Override
+        public void write(int b) {
+            written++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            written += len;
+        }
+    }
+
+    private final Sink sink = new Sink();
+    private final PrintStream out = new PrintStream(sink);
+    private final Object terminal;
+    private final Object parser;
+
+    Cli() {
+        try {
+            terminal = (Object) NEW_TERMINAL.invokeExact((InputStream) null, out);
+            parser = (Object) PARSER.invokeExact(terminal);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // The stream the commands print to, for baselines that should pay for printing too
+    PrintStream out() {
+        return out;
+    }
+
+    boolean parse(String line) {
+        try {
+            return (boolean) PARSE.invokeExact(parser, line);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Runs one command line and returns the bytes it printed
+    long run(String line) {
+        long before = sink.written;
+        if (!parse(line)) throw new IllegalArgumentException("invalid command: " + line);
+        try {
+            CHOOSE_COMMAND_ACTION.invokeExact(terminal);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+        out.flush();
+        return sink.written - before;
+    }
+
+    // Like run, for a command with "> file": it returns once the output is queued, so this also
+    // waits until RedirectWriter has written it
+    long runRedirected(String line) {
+        long printed = run(line);
+        try {
+            SYNC_REDIRECTS.invokeExact();
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+        return printed;
+    }
+}
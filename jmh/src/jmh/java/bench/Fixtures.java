@@ -0,0 +1,78 @@
+package bench;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Generated inputs shared by the benchmarks: a large text file of short log-like lines and a
+ * directory tree of small files. Both come from a fixed seed, so every run sees the same data.
+ */
+final class Fixtures {
+
+    private static final String[] WORDS = { "alpha", "beta", "gamma", "delta", "error", "warning", "info", "request", "id=1234", "ok" };
+
+    private Fixtures() {
+    }
+
+    // Writes about "size" bytes of 4 to 15 word lines to dir/large.txt
+    static Path textFile(Path dir, long size) throws IOException {
+        Random random = new Random(42);
+        Path file = dir.resolve("large.txt");
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file))) {
+            long written = 0;
+            StringBuilder line = new StringBuilder();
+            while (written < size) {
+                line.setLength(0);
+                int count = 4 + random.nextInt(12);
+                for (int i = 0; i < count; i++) {
+                    line.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+                }
+                writer.println(line);
+                written += line.length() + 1;
+            }
+        }
+        return file;
+    }
+
+    // Writes "files" files of 0.5 to 4 KB to dir/tree, spread over 20 x 7 directories
+    static Path tree(Path dir, int files) throws IOException {
+        Random random = new Random(42);
+        Path tree = dir.resolve("tree");
+        byte[] content = new byte[4096];
+        for (int i = 0; i < files; i++) {
+            Path parent = tree.resolve("d" + (i % 20)).resolve("s" + (i % 7));
+            Files.createDirectories(parent);
+            random.nextBytes(content);
+            // Half random (incompressible), half text, like a typical source/build tree
+            int size = 512 + random.nextInt(content.length - 512);
+            if (i % 2 == 0)
+                Files.write(parent.resolve("f" + i + ".bin"), Arrays.copyOf(content, size));
+            else
+                Files.writeString(parent.resolve("f" + i + ".txt"), WORDS[i % WORDS.length].repeat(size / 8));
+        }
+        return tree;
+    }
+
+    // "64m", "512k" or a plain number of bytes
+    static long parseSize(String text) {
+        char unit = Character.toLowerCase(text.charAt(text.length() - 1));
+        long multiplier = unit == 'k' ? 1024 : unit == 'm' ? 1024 * 1024 : unit == 'g' ? 1024L * 1024 * 1024 : 1;
+        String digits = multiplier == 1 ? text : text.substring(0, text.length() - 1);
+        return Long.parseLong(digits) * multiplier;
+    }
+
+    static void deleteTree(Path dir) throws IOException {
+        if (Files.notExists(dir)) return;
+        try (Stream<Path> walk = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) walk.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
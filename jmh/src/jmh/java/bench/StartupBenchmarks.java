@@ -0,0 +1,69 @@
+package bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time from launching a new interpreter process until its first command has run. With
+ * {@code -p launch=cds} the interpreter starts from {@code build/cli.jar} with the archive made by
+ * {@code build-cds.sh}; the project directory is taken from the {@code cli.root} property, which
+ * the Gradle build sets.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StartupBenchmarks {
+
+    // "classpath" starts Main from the benchmark's own class path, "cds" from the jar and archive
+    @Param({ "classpath" })
+    public String launch;
+
+    private String[] command;
+
+    @Setup
+    public void findCommand() {
+        String java = ProcessHandle.current().info().command().orElse("java");
+        if (launch.equals("classpath")) {
+            command = new String[] { java, "-cp", System.getProperty("java.class.path"), "Main" };
+            return;
+        }
+        Path build = Path.of(System.getProperty("cli.root", ".")).resolve("build");
+        Path archive = build.resolve("cli.jsa");
+        if (Files.notExists(archive)) throw new IllegalStateException("no " + archive + "; run build-cds.sh first");
+        command = new String[] { java, "-XX:SharedArchiveFile=" + archive, "-jar", build.resolve("cli.jar").toString() };
+    }
+
+    // Sends the interpreter one command and returns once its output has arrived and it exited
+    @Benchmark
+    public int startup() throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.DISCARD).start();
+        try (OutputStream stdin = process.getOutputStream();
+             BufferedReader stdout = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            stdin.write("echo ready\nexit\n".getBytes());
+            stdin.flush();
+            String line = stdout.readLine();
+            if (!"ready".equals(line)) throw new IllegalStateException("unexpected startup output: " + line);
+        }
+        return process.waitFor();
+    }
+}
@@ -0,0 +1,187 @@
+package bench;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The commands that read or copy one large text file, next to the {@code legacy*} code paths the
+ * streaming engines replaced. Every benchmark returns what it printed, or the value it computed,
+ * so the work cannot be optimised away.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextBenchmarks {
+
+    // Size of the generated text file
+    @Param({ "64m" })
+    public String size;
+
+    private Path root;
+    private Path textFile;
+    private Cli cli;
+
+    @Setup(Level.Trial)
+    public void createFixtures() throws IOException {
+        root = Files.createTempDirectory("cli-bench");
+        textFile = Fixtures.textFile(root, Fixtures.parseSize(size));
+        cli = new Cli();
+        cli.run("cd " + root);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFixtures() throws IOException {
+        Fixtures.deleteTree(root);
+    }
+
+    @Benchmark
+    public boolean parse() {
+        return cli.parse("cp -r -p4 source/dir target/dir");
+    }
+
+    @Benchmark
+    public long echoRedirect() {
+        return cli.runRedirected("echo benchmark line >> " + root.resolve("echo.log"));
+    }
+
+    @Benchmark
+    public long cat() {
+        return cli.run("cat " + textFile);
+    }
+
+    @Benchmark
+    public long catRedirect() {
+        return cli.runRedirected("cat " + textFile + " > " + root.resolve("cat.out"));
+    }
+
+    @Benchmark
+    public long wc() {
+        return cli.run("wc " + textFile);
+    }
+
+    @Benchmark
+    public long grep() {
+        return cli.run("grep -c request " + textFile);
+    }
+
+    @Benchmark
+    public long grepRegex() {
+        return cli.run("grep -c \"id=[0-9]+ ok\" " + textFile);
+    }
+
+    @Benchmark
+    public long head() {
+        return cli.run("head -n 100 " + textFile);
+    }
+
+    @Benchmark
+    public long tail() {
+        return cli.run("tail -n 100 " + textFile);
+    }
+
+    @Benchmark
+    public long sort() {
+        return cli.run("sort " + textFile);
+    }
+
+    @Benchmark
+    public long cp() {
+        return cli.run("cp " + textFile + " " + root.resolve("copy.txt"));
+    }
+
+    // A memory budget well below the file size, so the sort spills runs and merges them
+    @Benchmark
+    public long sortSpill() {
+        return cli.run("sort -S 16m " + textFile);
+    }
+
+    // ---------------------------
+    // Baselines: the code paths before the streaming engines
+    // ---------------------------
+
+    @Benchmark
+    public int legacyCat() throws IOException {
+        StringBuilder output = new StringBuilder();
+        try (Stream<String> lines = Files.lines(textFile)) {
+            lines.forEach(line -> output.append(line).append(System.lineSeparator()));
+        }
+        cli.out().print(output);
+        return output.length();
+    }
+
+    @Benchmark
+    public int legacyWc() throws IOException {
+        int lines = 0, words = 0, bytes = 0;
+        try (BufferedReader br = new BufferedReader(new FileReader(textFile.toFile()))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                lines++;
+                words += line.split("\\s+").length;
+                bytes += line.getBytes().length + 1;
+            }
+        }
+        cli.out().println(lines + " " + words + " " + bytes);
+        return lines + words + bytes;
+    }
+
+    // Line-by-line search, what piping the file through BufferedReader and String.contains gives
+    @Benchmark
+    public long legacyGrep() throws IOException {
+        long count = 0;
+        try (BufferedReader br = Files.newBufferedReader(textFile)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.contains("request")) count++;
+            }
+        }
+        cli.out().println(count);
+        return count;
+    }
+
+    // The last 100 lines the way cat reads a file: every line of it through Files.lines
+    @Benchmark
+    public int legacyTail() throws IOException {
+        Deque<String> last = new ArrayDeque<>();
+        try (Stream<String> lines = Files.lines(textFile)) {
+            lines.forEach(line -> {
+                last.addLast(line);
+                if (last.size() > 100) last.removeFirst();
+            });
+        }
+        last.forEach(cli.out()::println);
+        return last.size();
+    }
+
+    @Benchmark
+    public int legacySort() throws IOException {
+        List<String> lines = Files.readAllLines(textFile);
+        lines.sort(null);
+        lines.forEach(cli.out()::println);
+        return lines.size();
+    }
+}
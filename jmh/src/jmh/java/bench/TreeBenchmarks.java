@@ -0,0 +1,187 @@
+package bench;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The commands that walk, copy, archive or delete a directory tree of small files, next to the
+ * serial {@code legacy*} code paths the parallel engines replaced. Copies and extractions go to a
+ * new directory per operation, and the outputs are removed after every iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TreeBenchmarks {
+
+    // Number of files in the generated tree
+    @Param({ "2000" })
+    public int files;
+
+    private Path root;
+    private Path tree;
+    private Path archive;
+    private Cli cli;
+    private int counter;
+
+    /**
+     * A new copy of the tree for every {@code rm -r} operation, made outside the measurement.
+     */
+    @State(Scope.Thread)
+    public static class Victim {
+        Path dir;
+
+        @Setup(Level.Invocation)
+        public void copy(TreeBenchmarks benchmarks) {
+            dir = benchmarks.fresh("rm");
+            benchmarks.cli.run("cp -r " + benchmarks.tree + " " + dir);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void createFixtures() throws IOException {
+        root = Files.createTempDirectory("cli-bench");
+        tree = Fixtures.tree(root, files);
+        archive = root.resolve("serial.zip");
+        cli = new Cli();
+        cli.run("cd " + tree);
+        // unzip needs the archive even when only the unzip benchmarks are selected
+        cli.run("zip -r " + archive + " " + tree);
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteOutputs() throws IOException {
+        Fixtures.deleteTree(root.resolve("out"));
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFixtures() throws IOException {
+        Fixtures.deleteTree(root);
+    }
+
+    @Benchmark
+    public long ls() {
+        return cli.run("ls");
+    }
+
+    @Benchmark
+    public long find() {
+        return cli.run("find " + tree + " -name *.txt -size +1k");
+    }
+
+    @Benchmark
+    public long cpR() {
+        return cli.run("cp -r " + tree + " " + fresh("cp"));
+    }
+
+    @Benchmark
+    public long zip() {
+        return cli.run("zip -r " + root.resolve("out-serial.zip") + " " + tree);
+    }
+
+    @Benchmark
+    public long zipParallel() {
+        return cli.run("zip -r -p " + root.resolve("out-parallel.zip") + " " + tree);
+    }
+
+    @Benchmark
+    public long unzip() {
+        return cli.run("unzip " + archive + " " + fresh("unzip"));
+    }
+
+    @Benchmark
+    public long rmR(Victim victim) {
+        return cli.run("rm -r " + victim.dir);
+    }
+
+    // ---------------------------
+    // Baselines: the serial Files.walk code paths before the parallel engines
+    // ---------------------------
+
+    // The traversal cp -r and zip -r were built on, with the same tests as the find benchmark
+    @Benchmark
+    public long legacyFind() throws IOException {
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:*.txt");
+        try (Stream<Path> walk = Files.walk(tree)) {
+            return walk.filter(path -> matcher.matches(path.getFileName()))
+                    .filter(path -> {
+                        try {
+                            return Files.size(path) > 2 * 512;
+                        } catch (IOException e) {
+                            return false;
+                        }
+                    })
+                    .peek(cli.out()::println)
+                    .count();
+        }
+    }
+
+    @Benchmark
+    public Path legacyCpR() throws IOException {
+        Path destination = fresh("legacy-cp");
+        try (Stream<Path> walk = Files.walk(tree)) {
+            for (Path src : (Iterable<Path>) walk::iterator) {
+                Path target = destination.resolve(tree.relativize(src).toString());
+                if (Files.isDirectory(src))
+                    Files.createDirectories(target);
+                else
+                    Files.copy(src, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        return destination;
+    }
+
+    @Benchmark
+    public Path legacyUnzip() throws IOException {
+        Path dir = fresh("legacy-unzip");
+        try (ZipInputStream zip = new ZipInputStream(new FileInputStream(archive.toFile()))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                Path newPath = dir.resolve(entry.getName());
+                if (entry.isDirectory()) {
+                    Files.createDirectories(newPath);
+                } else {
+                    Files.createDirectories(newPath.getParent());
+                    Files.copy(zip, newPath, StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+        }
+        return dir;
+    }
+
+    @Benchmark
+    public Path legacyRmR(Victim victim) throws IOException {
+        Fixtures.deleteTree(victim.dir);
+        return victim.dir;
+    }
+
+    // A new output directory per operation so copies and extractions never hit existing files
+    private Path fresh(String prefix) {
+        return root.resolve("out").resolve(prefix + "-" + (counter++));
+    }
+}
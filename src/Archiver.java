@@ -0,0 +1,227 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * The {@code Archiver} class holds the {@code zip} and {@code unzip} commands of a {@link Terminal}.
+ * They live outside {@code Terminal} so that the {@code java.util.zip} classes, {@link ParallelZip}
+ * and {@link ParallelUnzip} are only loaded when an archive command actually runs, not on every
+ * start of the interpreter.
+ */
+class Archiver {
+
+    private Archiver() {
+    }
+
+    // zip [-r] [-0..-9] [-s] [-p[N]] [--dedupe] archive files... | dir
+    // -0..-9 sets the deflate level, -s stores entries uncompressed and -p compresses
+    // the entries on N worker threads (all cores when N is omitted); --dedupe compresses
+    // files with identical content only once
+    static void zip(Terminal terminal) {
+        try {
+            String[] args = terminal.parser.getArgs();
+            boolean recursive = false, store = false, dedupe = false;
+            int level = Deflater.DEFAULT_COMPRESSION, threads = 0;
+            int first = 0;
+            for (; first < args.length && args[first].startsWith("-") && args[first].length() > 1; first++) {
+                String flag = args[first];
+                if (flag.equals("-r"))
+                    recursive = true;
+                else if (flag.equals("-s"))
+                    store = true;
+                else if (flag.equals("--dedupe"))
+                    dedupe = true;
+                else if (flag.matches("-[0-9]"))
+                    level = flag.charAt(1) - '0';
+                else if (flag.startsWith("-p"))
+                    threads = flag.length() > 2 ? Integer.parseInt(flag.substring(2))
+                                                : Runtime.getRuntime().availableProcessors();
+                else {
+                    terminal.out.println("Error: unknown zip option " + flag);
+                    return;
+                }
+            }
+            args = Arrays.copyOfRange(args, first, args.length);
+            if (args.length < 2) {
+                terminal.out.println("Error: zip requires files");
+                return;
+            }
+            String zipName = args[0];
+            if (dedupe && threads == 0)
+                threads = Runtime.getRuntime().availableProcessors();
+            if (store || threads > 0) {
+                zipParallel(terminal, args, recursive, level, store, threads, dedupe);
+            } else if (recursive) {
+                String dirName = args[1];
+                zipDirectory(terminal, terminal.resolve(dirName), terminal.resolve(zipName), level);
+            } else {
+                zipFiles(terminal, Arrays.copyOfRange(args, 1, args.length), zipName, level);
+            }
+        } catch (Exception e) {
+            terminal.out.println("Error in zip: " + e.getMessage());
+        }
+    }
+
+    private static void zipFiles(Terminal terminal, String[] files, String zipName, int level) {
+        Path zipFile = terminal.resolve(zipName);
+        Progress progress = terminal.progress();
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zipFile.toFile()))) {
+            zos.setLevel(level);
+            for (String file : files) {
+                if (progress.isCancelled()) break;
+                Path f = terminal.resolve(file);
+                zos.putNextEntry(new ZipEntry(f.getFileName().toString()));
+                progress.file(Files.copy(f, zos));
+                zos.closeEntry();
+            }
+        } catch (Exception e) {
+            terminal.out.println("Error zipping files: " + e.getMessage());
+            return;
+        }
+        if (progress.stoppedEarly()) {
+            // The archive only holds the files zipped before the job was killed
+            try {
+                Files.deleteIfExists(zipFile);
+            } catch (IOException e) {
+                terminal.out.println("Error zipping files: " + e.getMessage());
+            }
+            terminal.out.println("Zip cancelled after " + progress.files() + " files.");
+            return;
+        }
+        DirectoryCache.shared().changed(zipFile);
+        terminal.out.println("Zip created: " + zipName);
+    }
+
+    private static void zipDirectory(Terminal terminal, Path sourceDir, Path zipFile, int level) {
+        Progress progress = terminal.progress();
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zipFile.toFile()))) {
+            zos.setLevel(level);
+            Files.walk(sourceDir).forEach(path -> {
+                try {
+                    String entry = sourceDir.relativize(path).toString();
+                    if (Files.isDirectory(path) || progress.isCancelled()) return;
+                    zos.putNextEntry(new ZipEntry(entry));
+                    progress.file(Files.copy(path, zos));
+                    zos.closeEntry();
+                } catch (Exception e) {
+                    terminal.out.println("Error processing file in zip: " + e.getMessage());
+                }
+            });
+        } catch (Exception e) {
+            terminal.out.println("Error zipping directory: " + e.getMessage());
+            return;
+        }
+        if (progress.stoppedEarly()) {
+            // The archive only holds the files zipped before the job was killed
+            try {
+                Files.deleteIfExists(zipFile);
+            } catch (IOException e) {
+                terminal.out.println("Error zipping directory: " + e.getMessage());
+            }
+            terminal.out.println("Zip cancelled after " + progress.files() + " files.");
+            return;
+        }
+        DirectoryCache.shared().changed(zipFile);
+        terminal.out.println("Directory zipped successfully.");
+    }
+
+    // Builds the archive with ParallelZip; args are the archive name followed by files or a directory
+    private static void zipParallel(Terminal terminal, String[] args, boolean recursive, int level, boolean store, int threads, boolean dedupe) {
+        try {
+            Path zipFile = terminal.resolve(args[0]).toAbsolutePath();
+            List<ParallelZip.Source> sources = new ArrayList<>();
+            if (recursive) {
+                Path sourceDir = terminal.resolve(args[1]);
+                try (Stream<Path> walk = Files.walk(sourceDir)) {
+                    walk.filter(Files::isRegularFile)
+                        .filter(path -> !path.toAbsolutePath().equals(zipFile))
+                        .forEach(path -> sources.add(new ParallelZip.Source(
+                                sourceDir.relativize(path).toString().replace(File.separatorChar, '/'), path)));
+                }
+            } else {
+                for (String file : Arrays.copyOfRange(args, 1, args.length)) {
+                    Path f = terminal.resolve(file);
+                    sources.add(new ParallelZip.Source(f.getFileName().toString(), f));
+                }
+            }
+            ParallelZip zip = new ParallelZip(level, store, threads, dedupe, terminal.out);
+            Progress progress = terminal.progress();
+            zip.setProgress(progress);
+            int entries;
+            try {
+                entries = zip.write(sources, zipFile);
+            } catch (IOException | InterruptedException e) {
+                // A cancelled or failed archive would only be half written
+                Files.deleteIfExists(zipFile);
+                if (!progress.stoppedEarly()) throw e;
+                terminal.out.println("Zip cancelled after " + progress.files() + " files.");
+                return;
+            }
+            DirectoryCache.shared().changed(zipFile);
+            terminal.out.println("Zip created: " + args[0] + " (" + entries + " entries)");
+        } catch (Exception e) {
+            terminal.out.println("Error zipping files: " + e.getMessage());
+        }
+    }
+
+    // unzip <zip-file> [destination-folder] [-i glob]... [-p[N]]
+    // -i extracts only the matching entries, -p sets the number of extraction threads
+    static void unzip(Terminal terminal) {
+        try {
+            String[] args = terminal.parser.getArgs();
+            List<String> positional = new ArrayList<>();
+            List<String> patterns = new ArrayList<>();
+            int threads = Runtime.getRuntime().availableProcessors();
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("-i") && i + 1 < args.length)
+                    patterns.add(args[++i]);
+                else if (arg.startsWith("-p") && arg.length() > 2)
+                    threads = Integer.parseInt(arg.substring(2));
+                else
+                    positional.add(arg);
+            }
+            if (positional.isEmpty() || positional.size() > 2) {
+                throw new IllegalArgumentException("Usage: unzip <zip-file> [destination-folder] [-i pattern]... [-pN]");
+            }
+            File dir = positional.size() == 1 ? terminal.cwd.toFile() : terminal.resolve(positional.get(1)).toFile();
+
+            Path zipPath = terminal.resolve(positional.get(0));
+            if (!Files.exists(zipPath)) {
+                throw new FileNotFoundException("ZIP file not found!");
+            }
+            if (!dir.exists()) {
+                Files.createDirectories(dir.toPath());
+            }
+            ParallelUnzip unzip = new ParallelUnzip(threads, patterns, terminal.out);
+            Progress progress = terminal.progress();
+            unzip.setProgress(progress);
+            int extracted = 0;
+            try {
+                extracted = unzip.extract(zipPath, dir.toPath());
+            } catch (InterruptedException e) {
+                // kill interrupts the wait for the workers; the files written so far stay
+                if (!progress.stoppedEarly()) throw e;
+            }
+            DirectoryCache.shared().changedTree(dir.toPath());
+            if (progress.stoppedEarly())
+                terminal.out.println("Unzip cancelled after " + progress.files() + " files.");
+            else if (!patterns.isEmpty() && extracted == 0)
+                terminal.out.println("No entries matched " + String.join(" ", patterns));
+            else
+                terminal.out.println("Unzip completed successfully! (" + extracted + " files)");
+        } catch (Exception e) {
+            terminal.out.println("Error in unzip: " + e.getMessage());
+        }
+    }
+}
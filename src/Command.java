@@ -0,0 +1,41 @@
+/**
+ * A command of the interpreter. The built-in commands are registered by {@link CommandRegistry};
+ * further commands, or faster replacements of built-in ones, are plain classes with a public
+ * no-argument constructor listed in {@code META-INF/services/Command}, found with
+ * {@link java.util.ServiceLoader} the first time a command is run.
+ *
+ * A command reads its arguments and input from the {@link CommandContext} and prints to
+ * {@link CommandContext#out()}, which already points at the file when the output is redirected.
+ * Problems are reported on the output like the built-in commands do ({@code Error in <name>: ...}).
+ */
+public interface Command {
+
+    // What a command does with files, so pending redirections can be settled before it runs
+    enum FileAccess {
+        // Does not look at files; queued redirections may still be in flight
+        NONE,
+        // Reads files; queued redirections are written first
+        READ,
+        // Deletes or replaces files; open redirect handles are closed first as well
+        REPLACE
+    }
+
+    // The name the command is invoked by
+    String name();
+
+    void run(CommandContext context) throws Exception;
+
+    default FileAccess fileAccess() {
+        return FileAccess.READ;
+    }
+
+    // False for commands whose runs are not recorded by CommandMetrics, like stats itself
+    default boolean recordsMetrics() {
+        return true;
+    }
+
+    // True when the command handles "> file" and ">> file" itself instead of getting them from the context
+    default boolean handlesRedirection() {
+        return false;
+    }
+}
@@ -0,0 +1,65 @@
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Everything one run of a {@link Command} works with: its arguments, its input (the previous
+ * stage of a pipeline, or null), its output and the {@link Terminal} it runs in. A trailing
+ * {@code > file} or {@code >> file} is taken off the arguments and turns the output into a
+ * stream into that file, unless the command handles redirection itself.
+ */
+public class CommandContext {
+
+    private final Terminal terminal;
+    private final String[] args;
+    private final PrintStream out;
+    private final Path redirect;
+
+    CommandContext(Terminal terminal, Command command) {
+        this.terminal = terminal;
+        String[] all = terminal.parser.getArgs();
+        int n = all.length;
+        if (!command.handlesRedirection() && n >= 2 && terminal.parser.isOperator(n - 2)
+                && (all[n - 2].equals(">") || all[n - 2].equals(">>"))) {
+            args = Arrays.copyOf(all, n - 2);
+            redirect = terminal.resolve(all[n - 1]);
+            out = terminal.openRedirect(all[n - 2], all[n - 1]);
+        } else {
+            args = all;
+            redirect = null;
+            out = terminal.out;
+        }
+    }
+
+    public String[] args() {
+        return args;
+    }
+
+    public InputStream in() {
+        return terminal.in;
+    }
+
+    public PrintStream out() {
+        return out;
+    }
+
+    public Terminal terminal() {
+        return terminal;
+    }
+
+    // Resolves a path argument against the terminal's working directory
+    public Path resolve(String path) {
+        return terminal.resolve(path);
+    }
+
+    // Hands the rest of a redirected output to the writer, or flushes the terminal output
+    void finish() {
+        if (redirect == null) {
+            out.flush();
+            return;
+        }
+        out.close();
+        DirectoryCache.shared().changed(redirect);
+    }
+}
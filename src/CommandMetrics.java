@@ -0,0 +1,254 @@
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+
+/**
+ * The {@code CommandMetrics} class records, per command name, how often it ran, how long it
+ * took (as a latency histogram with p50/p99/max), how many bytes it read and wrote and how
+ * often it failed. A command counts as failed when it throws or prints a line starting the
+ * way this interpreter reports problems ({@code Error}, {@code Usage:}, ...).
+ *
+ * Metrics are off unless the interpreter is started with {@code -Dcli.metrics=true} or the
+ * {@code stats on} command is run; while off, dispatch only pays for one volatile read. The
+ * numbers are shown by {@code stats} (or {@code stats --json}) and over JMX as
+ * {@code cli:type=CommandMetrics}, registered the first time metrics are switched on.
+ */
+public class CommandMetrics implements CommandMetricsMXBean {
+
+    private static class Holder {
+        static final CommandMetrics SHARED = new CommandMetrics(Boolean.getBoolean("cli.metrics"));
+    }
+
+    // The metrics shared by every terminal in this process
+    public static CommandMetrics shared() {
+        return Holder.SHARED;
+    }
+
+    // Log-linear histogram of nanosecond latencies: 8 buckets per power of two, so every
+    // bucket is at most 12.5% wide and recording is one array increment
+    static class Histogram {
+        private static final int SUB_BUCKETS = 8;
+        private final AtomicLongArray buckets = new AtomicLongArray(61 * SUB_BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+        void record(long nanos) {
+            buckets.incrementAndGet(index(Math.max(0, nanos)));
+            count.increment();
+            max.accumulate(nanos);
+        }
+
+        // Upper bound of the bucket holding the given percentile, never above the maximum
+        long percentile(double percent) {
+            long total = count.sum();
+            if (total == 0) return 0;
+            long rank = (long) Math.ceil(total * percent / 100.0);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) return Math.min(upperBound(i), max());
+            }
+            return max();
+        }
+
+        long max() {
+            return max.get();
+        }
+
+        private static int index(long value) {
+            if (value < SUB_BUCKETS) return (int) value;
+            int magnitude = 63 - Long.numberOfLeadingZeros(value);
+            return (magnitude - 2) * SUB_BUCKETS + (int) ((value >>> (magnitude - 3)) & (SUB_BUCKETS - 1));
+        }
+
+        private static long upperBound(int index) {
+            if (index < SUB_BUCKETS) return index;
+            int magnitude = index / SUB_BUCKETS + 2;
+            long sub = index % SUB_BUCKETS;
+            return ((SUB_BUCKETS + sub + 1) << (magnitude - 3)) - 1;
+        }
+    }
+
+    // Totals of one command name
+    static class Stats {
+        final LongAdder errors = new LongAdder();
+        final LongAdder bytesRead = new LongAdder();
+        final LongAdder bytesWritten = new LongAdder();
+        final Histogram latency = new Histogram();
+    }
+
+    // One running command; the terminal reports its I/O here until the command finishes
+    public static class Invocation {
+        private final Stats stats;
+        private final long start = System.nanoTime();
+        long bytesRead;
+        long bytesWritten;
+        boolean failed;
+        // Set once the command prints file contents, which are no longer scanned for error messages
+        boolean data;
+
+        Invocation(Stats stats) {
+            this.stats = stats;
+        }
+
+        // Counts what goes through "out"; with detectErrors a line starting with "Error" marks a failure
+        OutputStream counting(OutputStream out, boolean detectErrors) {
+            return new CountingStream(out, this, detectErrors);
+        }
+    }
+
+    private static class CountingStream extends FilterOutputStream {
+        // How the commands of this interpreter start a line that reports a failure
+        private static final byte[][] FAILURES = {
+                "Error".getBytes(), "File not found".getBytes(), "Usage:".getBytes(), "Unknown command".getBytes() };
+        private static final int LONGEST = 15;
+        private final Invocation invocation;
+        private final boolean detectErrors;
+        // The first bytes of the current line, as far as they are needed to recognise a failure
+        private final byte[] line = new byte[LONGEST];
+        private int position;
+
+        CountingStream(OutputStream out, Invocation invocation, boolean detectErrors) {
+            super(out);
+            this.invocation = invocation;
+            this.detectErrors = detectErrors;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            invocation.bytesWritten++;
+            if (detectErrors && !invocation.failed && !invocation.data) track((byte) b);
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            invocation.bytesWritten += len;
+            if (detectErrors && !invocation.failed && !invocation.data) {
+                for (int i = off; i < off + len; i++) track(b[i]);
+            }
+            out.write(b, off, len);
+        }
+
+        private void track(byte b) {
+            if (b == '\n') {
+                position = 0;
+                return;
+            }
+            if (position == LONGEST) return;
+            line[position++] = b;
+            for (byte[] failure : FAILURES) {
+                if (failure.length == position && Arrays.equals(failure, 0, position, line, 0, position)) {
+                    invocation.failed = true;
+                    return;
+                }
+            }
+        }
+    }
+
+    private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+    private volatile boolean enabled;
+    private boolean registered;
+
+    private CommandMetrics(boolean enabled) {
+        setEnabled(enabled);
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public synchronized void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (enabled && !registered) {
+            registered = true;
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("cli:type=CommandMetrics"));
+            } catch (Exception e) {
+                System.err.println("Could not register metrics with JMX: " + e.getMessage());
+            }
+        }
+    }
+
+    public Invocation begin(String command) {
+        return new Invocation(stats.computeIfAbsent(command, name -> new Stats()));
+    }
+
+    public void end(Invocation invocation) {
+        Stats s = invocation.stats;
+        s.latency.record(System.nanoTime() - invocation.start);
+        s.bytesRead.add(invocation.bytesRead);
+        s.bytesWritten.add(invocation.bytesWritten);
+        if (invocation.failed) s.errors.increment();
+    }
+
+    @Override
+    public Map<String, Long> getInvocations() {
+        Map<String, Long> result = new TreeMap<>();
+        stats.forEach((name, s) -> result.put(name, s.latency.count.sum()));
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getP99Micros() {
+        Map<String, Long> result = new TreeMap<>();
+        stats.forEach((name, s) -> result.put(name, s.latency.percentile(99) / 1000));
+        return result;
+    }
+
+    @Override
+    public long getTotalErrors() {
+        long total = 0;
+        for (Stats s : stats.values()) total += s.errors.sum();
+        return total;
+    }
+
+    @Override
+    public void reset() {
+        stats.clear();
+    }
+
+    // The table printed by "stats"
+    public String table() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "%-10s %8s %7s %10s %10s %10s %12s %12s",
+                "command", "count", "errors", "p50 us", "p99 us", "max us", "read", "written"));
+        for (Map.Entry<String, Stats> e : new TreeMap<>(stats).entrySet()) {
+            Stats s = e.getValue();
+            sb.append(String.format(Locale.ROOT, "%n%-10s %8d %7d %10.1f %10.1f %10.1f %12d %12d", e.getKey(),
+                    s.latency.count.sum(), s.errors.sum(), s.latency.percentile(50) / 1e3,
+                    s.latency.percentile(99) / 1e3, s.latency.max() / 1e3, s.bytesRead.sum(), s.bytesWritten.sum()));
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String getJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"enabled\":").append(enabled).append(",\"commands\":{");
+        boolean first = true;
+        for (Map.Entry<String, Stats> e : new TreeMap<>(stats).entrySet()) {
+            Stats s = e.getValue();
+            if (!first) sb.append(',');
+            first = false;
+            sb.append('"').append(e.getKey().replace("\\", "\\\\").replace("\"", "\\\"")).append("\":");
+            sb.append(String.format(Locale.ROOT,
+                    "{\"count\":%d,\"errors\":%d,\"p50Micros\":%.1f,\"p99Micros\":%.1f,\"maxMicros\":%.1f,\"bytesRead\":%d,\"bytesWritten\":%d}",
+                    s.latency.count.sum(), s.errors.sum(), s.latency.percentile(50) / 1e3,
+                    s.latency.percentile(99) / 1e3, s.latency.max() / 1e3, s.bytesRead.sum(), s.bytesWritten.sum()));
+        }
+        return sb.append("}}").toString();
+    }
+}
@@ -0,0 +1,24 @@
+import java.util.Map;
+
+/**
+ * The JMX view of {@link CommandMetrics}, registered as {@code cli:type=CommandMetrics}.
+ */
+public interface CommandMetricsMXBean {
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    // Invocations per command name
+    Map<String, Long> getInvocations();
+
+    // 99th percentile latency per command name, in microseconds
+    Map<String, Long> getP99Micros();
+
+    long getTotalErrors();
+
+    // Everything "stats --json" prints
+    String getJson();
+
+    void reset();
+}
@@ -0,0 +1,112 @@
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.function.Consumer;
+
+/**
+ * The {@code CommandRegistry} class maps command names to {@link Command}s. It is built once,
+ * the first time a command is dispatched: the built-in commands of {@link Terminal} first, then
+ * every command listed in {@code META-INF/services/Command}, which may replace a built-in one
+ * with the same name. A listed command that cannot be loaded is reported on stderr and left
+ * out. Dispatch is a single lookup in the resulting map.
+ */
+public class CommandRegistry {
+
+    private static class Holder {
+        static final CommandRegistry SHARED = new CommandRegistry();
+    }
+
+    // The registry shared by every terminal in this process
+    public static CommandRegistry shared() {
+        return Holder.SHARED;
+    }
+
+    // A built-in command: a method of Terminal that reads its arguments from the parser
+    private static class Builtin implements Command {
+        private final String name;
+        private final FileAccess access;
+        private final Consumer<Terminal> action;
+
+        Builtin(String name, FileAccess access, Consumer<Terminal> action) {
+            this.name = name;
+            this.access = access;
+            this.action = action;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public void run(CommandContext context) {
+            action.accept(context.terminal());
+        }
+
+        @Override
+        public FileAccess fileAccess() {
+            return access;
+        }
+
+        @Override
+        public boolean handlesRedirection() {
+            return true;
+        }
+    }
+
+    static final int MAX_PROVIDER_FAILURES = 32;
+
+    private final Map<String, Command> commands;
+
+    private CommandRegistry() {
+        Map<String, Command> map = new HashMap<>();
+        builtin(map, "echo", Command.FileAccess.NONE, Terminal::echo);
+        builtin(map, "pwd", Command.FileAccess.NONE, t -> t.out.println(t.pwd()));
+        builtin(map, "cd", Command.FileAccess.NONE, t -> t.cd(t.parser.getArgs()));
+        builtin(map, "ls", Command.FileAccess.READ, Terminal::ls);
+        builtin(map, "du", Command.FileAccess.READ, Terminal::du);
+        builtin(map, "cat", Command.FileAccess.READ, Terminal::cat);
+        builtin(map, "wc", Command.FileAccess.READ, Terminal::wc);
+        builtin(map, "touch", Command.FileAccess.READ, Terminal::touch);
+        builtin(map, "mkdir", Command.FileAccess.READ, Terminal::mkdir);
+        builtin(map, "rm", Command.FileAccess.REPLACE, Terminal::rm);
+        builtin(map, "rmdir", Command.FileAccess.REPLACE, Terminal::rmdir);
+        builtin(map, "cp", Command.FileAccess.REPLACE, Terminal::copy);
+        // Lambdas rather than method references: Archiver is only loaded once an archive command runs
+        builtin(map, "zip", Command.FileAccess.REPLACE, t -> Archiver.zip(t));
+        builtin(map, "unzip", Command.FileAccess.REPLACE, t -> Archiver.unzip(t));
+        loadProviders(map);
+        commands = Collections.unmodifiableMap(map);
+    }
+
+    // Adds the service-loaded commands; a provider that cannot be loaded (a bad jar, a missing
+    // class) is reported and left out, so the other commands keep working
+    private static void loadProviders(Map<String, Command> map) {
+        Iterator<Command> providers = ServiceLoader.load(Command.class).iterator();
+        int failures = 0;
+        // The iterator moves on past a broken provider on a best-effort basis only, so a
+        // configuration that keeps failing ends the loading instead of looping
+        while (failures < MAX_PROVIDER_FAILURES) {
+            try {
+                if (!providers.hasNext()) return;
+                Command command = providers.next();
+                map.put(command.name(), command);
+            } catch (ServiceConfigurationError | LinkageError | RuntimeException e) {
+                failures++;
+                System.err.println("Error loading command: " + e.getMessage());
+            }
+        }
+    }
+
+    private static void builtin(Map<String, Command> map, String name, Command.FileAccess access, Consumer<Terminal> action) {
+        map.put(name, new Builtin(name, access, action));
+    }
+
+    // The command with this name, or null when there is none
+    public Command find(String name) {
+        return commands.get(name);
+    }
+}
@@ -0,0 +1,89 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * The {@code CommandServer} class is the server mode of the interpreter
+ * ({@code java Main --server 7000} or {@code java Main --server unix:/tmp/cli.sock}).
+ * It accepts connections on a loopback TCP port or a Unix domain socket and runs every
+ * client session on its own virtual thread. Each session has its own {@link Terminal},
+ * so the working directory and parser state of one client never leak into another.
+ *
+ * The protocol is plain text: the client sends one command per line and receives the
+ * command output, flushed when the command finishes. {@code exit} ends the session and
+ * cancels the background jobs it started.
+ */
+public class CommandServer {
+
+    private final ServerSocketChannel server;
+    private final String description;
+
+    private CommandServer(ServerSocketChannel server, String description) {
+        this.server = server;
+        this.description = description;
+    }
+
+    // "7000" listens on 127.0.0.1:7000, "unix:/path/to/socket" on a Unix domain socket
+    public static CommandServer open(String address) throws IOException {
+        if (address.startsWith("unix:")) {
+            Path socket = Paths.get(address.substring("unix:".length()));
+            Files.deleteIfExists(socket);
+            ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            server.bind(UnixDomainSocketAddress.of(socket));
+            return new CommandServer(server, socket.toString());
+        }
+        SocketAddress local = new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(address));
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(local);
+        return new CommandServer(server, server.getLocalAddress().toString());
+    }
+
+    // Accepts clients until the server socket is closed
+    public void serve() throws IOException {
+        System.out.println("Listening on " + description);
+        while (server.isOpen()) {
+            SocketChannel client = server.accept();
+            Thread.ofVirtual().name("session-" + client.getRemoteAddress()).start(() -> session(client));
+        }
+    }
+
+    private void session(SocketChannel client) {
+        try (client;
+             BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(client), StandardCharsets.UTF_8));
+             PrintStream out = new PrintStream(new BufferedOutputStream(Channels.newOutputStream(client), 16 * 1024), false, StandardCharsets.UTF_8)) {
+            Terminal terminal = new Terminal(null, out);
+            String text;
+            while ((text = reader.readLine()) != null) {
+                if (text.trim().equalsIgnoreCase("exit")) break;
+                if (text.isBlank()) continue;
+                if (terminal.parser.parse(text)) {
+                    terminal.chooseCommandAction();
+                } else {
+                    out.println("Invalid command.");
+                }
+                out.flush();
+            }
+            terminal.endJobs(true);
+        } catch (IOException e) {
+            System.err.println("Session error: " + e.getMessage());
+        }
+    }
+
+    public void close() throws IOException {
+        server.close();
+    }
+}
@@ -0,0 +1,85 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The {@code CopyManifest} class remembers, for an incremental {@code cp -r}, which source
+ * files were already copied to the destination and in which state (size, modification time
+ * and, when hashing is on, the SHA-256 of the content). It is kept in the destination root
+ * as {@value #FILE_NAME}, one tab-separated line per file.
+ *
+ * A file whose size and modification time still match its manifest line is skipped after one
+ * stat of the destination shows that the copy is still there with the recorded size and time.
+ * Delete the manifest to force a full comparison.
+ */
+public class CopyManifest {
+
+    static final String FILE_NAME = ".cp-manifest";
+
+    // State of one source file at the time it was last copied
+    static class Entry {
+        final long size;
+        final long modified;
+        final String hash;
+
+        Entry(long size, long modified, String hash) {
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+        }
+    }
+
+    private final Path file;
+    private final Map<String, Entry> previous = new ConcurrentHashMap<>();
+    private final Map<String, Entry> current = new ConcurrentHashMap<>();
+
+    private CopyManifest(Path file) {
+        this.file = file;
+    }
+
+    // Loads the manifest of a destination tree; a missing or unreadable manifest is empty
+    public static CopyManifest load(Path destination) {
+        CopyManifest manifest = new CopyManifest(destination.resolve(FILE_NAME));
+        if (Files.notExists(manifest.file)) return manifest;
+        try (BufferedReader reader = Files.newBufferedReader(manifest.file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 4);
+                if (fields.length != 4) continue;
+                String hash = fields[2].equals("-") ? null : fields[2];
+                manifest.previous.put(fields[3], new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]), hash));
+            }
+        } catch (IOException | NumberFormatException e) {
+            manifest.previous.clear();
+        }
+        return manifest;
+    }
+
+    public Entry get(String relativePath) {
+        return previous.get(relativePath);
+    }
+
+    // Records a file that is now identical in source and destination
+    public void record(String relativePath, long size, long modified, String hash) {
+        current.put(relativePath, new Entry(size, modified, hash));
+    }
+
+    // Writes the files recorded in this run; files that left the source drop out of the manifest
+    public void save() throws IOException {
+        Path temp = file.resolveSibling(FILE_NAME + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Entry> e : current.entrySet()) {
+                Entry entry = e.getValue();
+                writer.write(entry.size + "\t" + entry.modified + "\t" + (entry.hash == null ? "-" : entry.hash) + "\t" + e.getKey());
+                writer.newLine();
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,195 @@
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@code DirectoryCache} class keeps the listings of recently used directories in memory,
+ * so repeated {@code ls}, {@code rmdir *} and {@code cd} calls on huge directories do not
+ * list the directory and stat every entry again. A listing is read in one
+ * {@link Files#newDirectoryStream} pass that fetches the attributes of each entry once.
+ * Like {@code ls -R}, a symbolic link is listed with its own attributes, not its target's.
+ *
+ * Cached directories are registered with a {@link WatchService}; any create, delete or modify
+ * event drops the listing. Commands that change the file system also invalidate the affected
+ * directories right away, since watch events arrive asynchronously. At most
+ * {@link #MAX_DIRECTORIES} listings are kept, the least recently used one is evicted first.
+ */
+public class DirectoryCache {
+
+    static final int MAX_DIRECTORIES = 64;
+
+    // One directory entry with the attributes read when the listing was built
+    public static class Entry {
+        final String name;
+        final boolean directory;
+        final boolean link;
+        final long size;
+        final FileTime modified;
+
+        Entry(String name, boolean directory, boolean link, long size, FileTime modified) {
+            this.name = name;
+            this.directory = directory;
+            this.link = link;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+
+    private static class Holder {
+        static final DirectoryCache SHARED = new DirectoryCache();
+    }
+
+    // The cache shared by every terminal in this process
+    public static DirectoryCache shared() {
+        return Holder.SHARED;
+    }
+
+    private final Map<Path, List<Entry>> listings = new LinkedHashMap<Path, List<Entry>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, List<Entry>> eldest) {
+            if (size() <= MAX_DIRECTORIES) return false;
+            cancelKey(eldest.getKey());
+            return true;
+        }
+    };
+    private final Map<Path, WatchKey> keys = new HashMap<>();
+    private WatchService watcher;
+    // Bumped on every invalidation, so a listing read while something changed is not stored
+    private long invalidations;
+
+    // Returns the entries of dir, from the cache when possible
+    public List<Entry> list(Path dir) throws IOException {
+        dir = dir.toAbsolutePath().normalize();
+        long version;
+        synchronized (this) {
+            List<Entry> cached = listings.get(dir);
+            if (cached != null) return cached;
+            version = invalidations;
+        }
+        // Watch first, so a change made while the directory is being read still invalidates it
+        boolean watched = watch(dir);
+        List<Entry> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path child : stream) {
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(child, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (IOException e) {
+                    // Deleted between listing and stat
+                    continue;
+                }
+                entries.add(new Entry(child.getFileName().toString(), attrs.isDirectory(), attrs.isSymbolicLink(),
+                        attrs.size(), attrs.lastModifiedTime()));
+            }
+        }
+        entries = Collections.unmodifiableList(entries);
+        synchronized (this) {
+            if (watched && version == invalidations)
+                listings.put(dir, entries);
+        }
+        return entries;
+    }
+
+    // cd validation: answered from the cached listing of the directory or its parent when there is one
+    public boolean isDirectory(Path path) {
+        path = path.toAbsolutePath().normalize();
+        synchronized (this) {
+            if (listings.containsKey(path)) return true;
+            Path parent = path.getParent();
+            List<Entry> siblings = parent == null ? null : listings.get(parent);
+            if (siblings != null && path.getFileName() != null) {
+                String name = path.getFileName().toString();
+                for (Entry entry : siblings) {
+                    // cd follows links, so only the target knows whether a link leads to a directory
+                    if (entry.name.equals(name)) return entry.link ? Files.isDirectory(path) : entry.directory;
+                }
+                return false;
+            }
+        }
+        return Files.isDirectory(path);
+    }
+
+    // Something at "path" was created, deleted or modified: its parent's listing is stale
+    public synchronized void changed(Path path) {
+        path = path.toAbsolutePath().normalize();
+        invalidate(path);
+        if (path.getParent() != null) invalidate(path.getParent());
+    }
+
+    // A whole tree under "root" was changed, e.g. by cp -r or unzip
+    public synchronized void changedTree(Path root) {
+        root = root.toAbsolutePath().normalize();
+        invalidations++;
+        for (Iterator<Path> it = listings.keySet().iterator(); it.hasNext(); ) {
+            Path dir = it.next();
+            if (dir.startsWith(root)) {
+                it.remove();
+                cancelKey(dir);
+            }
+        }
+        if (root.getParent() != null) invalidate(root.getParent());
+    }
+
+    private synchronized void invalidate(Path dir) {
+        invalidations++;
+        if (listings.remove(dir) != null) cancelKey(dir);
+    }
+
+    private void cancelKey(Path dir) {
+        WatchKey key = keys.remove(dir);
+        if (key != null) key.cancel();
+    }
+
+    // Registers dir with the watch service; returns false when it cannot be watched
+    private synchronized boolean watch(Path dir) {
+        WatchKey key = keys.get(dir);
+        if (key != null && key.isValid()) return true;
+        try {
+            if (watcher == null) {
+                watcher = dir.getFileSystem().newWatchService();
+                Thread thread = new Thread(this::processEvents, "directory-cache-watcher");
+                thread.setDaemon(true);
+                thread.start();
+            }
+            keys.put(dir, dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY));
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    private void processEvents() {
+        try {
+            while (true) {
+                WatchKey key = watcher.take();
+                key.pollEvents();
+                // The key is dropped whether or not a listing is cached: a signalled key that is
+                // never reset reports nothing more, and the next list() registers the directory again
+                Path dir = (Path) key.watchable();
+                synchronized (this) {
+                    invalidate(dir);
+                    keys.remove(dir, key);
+                }
+                key.cancel();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // The watcher only stops with the process
+        }
+    }
+}
@@ -0,0 +1,339 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Stream;
+
+/**
+ * The {@code ExternalSort} class sorts more lines than fit in memory. Lines are collected into
+ * runs of at most a share of the memory budget; every full run is sorted and written to a
+ * temporary file on a worker thread while the next one is read, with as many runs in flight as
+ * there are workers. At the end the run files, and the last run straight from memory, are merged
+ * with a priority queue holding the current line of each run. More than {@value #MAX_FAN_IN}
+ * runs are first merged in groups, so the number of open files stays bounded.
+ *
+ * Input that fits into one run is sorted in memory and never touches the disk. Closing the sort
+ * deletes its temporary files.
+ */
+public class ExternalSort implements AutoCloseable {
+
+    static final int MAX_FAN_IN = 64;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Lines between two checks for cancellation, a power of two
+    private static final int CHECK_INTERVAL = 4096;
+
+    // Order of the keys alone (equal keys are duplicates for "unique") and the full output order
+    private final Comparator<String> keyOrder;
+    private final Comparator<String> order;
+    private final boolean unique;
+    private final long runBudget;
+    private final int threads;
+    private final Path tempRoot;
+
+    private List<String> run = new ArrayList<>();
+    private long runBytes;
+    private Path tempDir;
+    private ForkJoinPool pool;
+    // Runs being sorted and spilled, oldest first, and the finished run files in input order
+    private final Deque<ForkJoinTask<Path>> spilling = new ArrayDeque<>();
+    private final List<Path> runs = new ArrayList<>();
+    private int created;
+    private Progress progress = new Progress();
+
+    // Lines with equal keys are ordered by the whole line, like sort(1) does as a last resort; with
+    // "unique" they keep their input order instead, so the first of them is the one printed
+    public ExternalSort(Comparator<String> keyOrder, boolean reverse, boolean unique, long memoryBudget, int threads, Path tempRoot) {
+        Comparator<String> full = unique ? keyOrder : keyOrder.thenComparing(Comparator.naturalOrder());
+        this.keyOrder = keyOrder;
+        this.order = reverse ? full.reversed() : full;
+        this.unique = unique;
+        this.threads = Math.max(1, threads);
+        // The runs being sorted by the workers plus the one being filled share the budget
+        this.runBudget = Math.max(1024 * 1024, memoryBudget / (this.threads + 1));
+        this.tempRoot = tempRoot;
+    }
+
+    // Checked every few thousand lines while reading and merging; once cancelled the sort stops
+    public void setProgress(Progress progress) {
+        this.progress = progress;
+    }
+
+    // The order of a sort key: fields "field" to "endField" of the line (1-based; endField 0
+    // means to the end of the line), split at "separator" or at runs of blanks when it is null;
+    // "numeric" compares the number the key starts with
+    static Comparator<String> keyOrder(int field, int endField, String separator, boolean numeric) {
+        if (numeric) return Comparator.comparingDouble(line -> number(line, bound(line, field, separator, false)));
+        if (field <= 1 && endField == 0) return Comparator.naturalOrder();
+        return (a, b) -> {
+            int i = bound(a, field, separator, false), j = bound(b, field, separator, false);
+            int aEnd = endField == 0 ? a.length() : Math.max(i, bound(a, endField, separator, true));
+            int bEnd = endField == 0 ? b.length() : Math.max(j, bound(b, endField, separator, true));
+            return compareRange(a, i, aEnd, b, j, bEnd);
+        };
+    }
+
+    // Compares a[i, aEnd) with b[j, bEnd) without taking substrings
+    private static int compareRange(String a, int i, int aEnd, String b, int j, int bEnd) {
+        for (; i < aEnd && j < bEnd; i++, j++) {
+            int diff = a.charAt(i) - b.charAt(j);
+            if (diff != 0) return diff;
+        }
+        return (aEnd - i) - (bEnd - j);
+    }
+
+    // Offset where field "field" starts, or ends when "end" is set; the line length when it has fewer fields
+    private static int bound(String line, int field, String separator, boolean end) {
+        int position = 0;
+        if (separator != null) {
+            for (int i = 1; i < field && position < line.length(); i++) {
+                int next = line.indexOf(separator, position);
+                position = next < 0 ? line.length() : next + separator.length();
+            }
+            if (!end) return position;
+            int next = line.indexOf(separator, position);
+            return next < 0 ? line.length() : next;
+        }
+        for (int i = 1; i <= Math.max(1, field); i++) {
+            while (position < line.length() && Character.isWhitespace(line.charAt(position))) position++;
+            if (i == Math.max(1, field) && !end) break;
+            while (position < line.length() && !Character.isWhitespace(line.charAt(position))) position++;
+        }
+        return position;
+    }
+
+    // The number at "from" in the line: optional blanks and sign, digits and a fraction; 0 if there is none
+    private static double number(String line, int from) {
+        int i = from;
+        while (i < line.length() && Character.isWhitespace(line.charAt(i))) i++;
+        boolean negative = i < line.length() && line.charAt(i) == '-';
+        if (negative) i++;
+        double value = 0;
+        for (; i < line.length() && line.charAt(i) >= '0' && line.charAt(i) <= '9'; i++) {
+            value = value * 10 + (line.charAt(i) - '0');
+        }
+        if (i < line.length() && line.charAt(i) == '.') {
+            double scale = 0.1;
+            for (i++; i < line.length() && line.charAt(i) >= '0' && line.charAt(i) <= '9'; i++, scale /= 10) {
+                value += (line.charAt(i) - '0') * scale;
+            }
+        }
+        return negative ? -value : value;
+    }
+
+    // Adds every line of the reader; a full run is handed to a worker to be sorted and spilled
+    public void add(BufferedReader reader) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if ((run.size() & CHECK_INTERVAL - 1) == 0 && progress.isCancelled()) return;
+            run.add(line);
+            // Object headers, the array slot and up to two bytes per char
+            runBytes += 48 + 2L * line.length();
+            if (runBytes >= runBudget) spill();
+        }
+    }
+
+    // Writes all lines added so far in order; returns the number of lines written
+    public long finish(Writer out) throws IOException {
+        // A cancelled sort has not seen all of its input, so none of its output would be right
+        if (progress.isCancelled()) return 0;
+        try {
+            run.sort(order);
+            if (runs.isEmpty() && spilling.isEmpty()) {
+                return write(List.of(run.iterator()), out);
+            }
+            while (!spilling.isEmpty()) {
+                runs.add(join(spilling.poll()));
+            }
+            // Merge in groups until the remaining runs and the last run in memory can be merged at once;
+            // a group holds the earliest runs, so its result goes back in front to keep input order for ties
+            while (runs.size() >= MAX_FAN_IN) {
+                if (progress.isCancelled()) return 0;
+                List<Path> group = new ArrayList<>(runs.subList(0, MAX_FAN_IN));
+                runs.subList(0, MAX_FAN_IN).clear();
+                runs.add(0, merge(group));
+            }
+            List<RunReader> readers = new ArrayList<>();
+            try {
+                List<Iterator<String>> sources = new ArrayList<>();
+                for (Path path : runs) {
+                    RunReader reader = new RunReader(path);
+                    readers.add(reader);
+                    sources.add(reader);
+                }
+                sources.add(run.iterator());
+                if (progress.isCancelled()) return 0;
+                return write(sources, out);
+            } finally {
+                for (RunReader reader : readers) reader.close();
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void spill() throws IOException {
+        if (pool == null) {
+            tempDir = Files.createTempDirectory(tempRoot, "cli-sort");
+            pool = new ForkJoinPool(threads);
+        }
+        // At most one run per worker in flight, so memory stays within the budget
+        if (spilling.size() >= threads) runs.add(join(spilling.poll()));
+        List<String> full = run;
+        Path file = tempDir.resolve("run-" + (created++));
+        spilling.add(pool.submit(() -> {
+            full.sort(order);
+            try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                for (String line : full) {
+                    writer.write(line);
+                    writer.write('\n');
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return file;
+        }));
+        run = new ArrayList<>();
+        runBytes = 0;
+    }
+
+    private static Path join(ForkJoinTask<Path> task) throws IOException {
+        try {
+            return task.join();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Merges the run files into one new run file and deletes them
+    private Path merge(List<Path> group) throws IOException {
+        Path file = tempDir.resolve("run-" + (created++));
+        List<RunReader> readers = new ArrayList<>();
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (Path path : group) readers.add(new RunReader(path));
+            merge(new ArrayList<>(readers), line -> {
+                writer.write(line);
+                writer.write('\n');
+            });
+        } finally {
+            for (RunReader reader : readers) reader.close();
+        }
+        for (Path path : group) Files.deleteIfExists(path);
+        return file;
+    }
+
+    // Writes the merged sources, dropping lines whose key equals the previous one for "unique"
+    private long write(List<Iterator<String>> sources, Writer out) throws IOException {
+        long[] written = new long[1];
+        String[] previous = new String[1];
+        merge(sources, line -> {
+            if (unique && previous[0] != null && keyOrder.compare(previous[0], line) == 0) return;
+            previous[0] = line;
+            out.write(line);
+            out.write('\n');
+            written[0]++;
+        });
+        out.flush();
+        return written[0];
+    }
+
+    private interface LineSink {
+        void accept(String line) throws IOException;
+    }
+
+    // K-way merge of sorted sources: the heap holds each source's current line; ties go to the
+    // earlier source so lines keep their input order
+    private void merge(List<? extends Iterator<String>> sources, LineSink sink) throws IOException {
+        PriorityQueue<Cursor> heap = new PriorityQueue<>(Math.max(1, sources.size()),
+                Comparator.comparing((Cursor c) -> c.line, order).thenComparingInt(c -> c.index));
+        for (int i = 0; i < sources.size(); i++) {
+            Iterator<String> source = sources.get(i);
+            if (source.hasNext()) heap.add(new Cursor(source, i, source.next()));
+        }
+        long merged = 0;
+        while (!heap.isEmpty()) {
+            if ((merged++ & CHECK_INTERVAL - 1) == 0 && progress.isCancelled()) return;
+            Cursor cursor = heap.poll();
+            sink.accept(cursor.line);
+            if (cursor.source.hasNext()) {
+                cursor.line = cursor.source.next();
+                heap.add(cursor);
+            }
+        }
+    }
+
+    private static class Cursor {
+        final Iterator<String> source;
+        final int index;
+        String line;
+
+        Cursor(Iterator<String> source, int index, String line) {
+            this.source = source;
+            this.index = index;
+            this.line = line;
+        }
+    }
+
+    // The lines of a run file through a large buffer
+    private static class RunReader implements Iterator<String> {
+        private final BufferedReader reader;
+        private String next;
+
+        RunReader(Path file) throws IOException {
+            reader = new BufferedReader(new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8), BUFFER_SIZE);
+            next = reader.readLine();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public String next() {
+            String line = next;
+            try {
+                next = reader.readLine();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return line;
+        }
+
+        void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    // Stops the workers and deletes the run files
+    @Override
+    public void close() throws IOException {
+        for (ForkJoinTask<Path> task : spilling) task.cancel(false);
+        spilling.clear();
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+        if (tempDir != null) {
+            try (Stream<Path> files = Files.list(tempDir)) {
+                for (Path file : (Iterable<Path>) files::iterator) Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(tempDir);
+            tempDir = null;
+        }
+        run = new ArrayList<>();
+    }
+}
@@ -0,0 +1,62 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The {@code FileChunks} class cuts a file into regions that start right after a
+ * line break, so every region can be memory-mapped and scanned on its own thread
+ * without a line being split between two workers.
+ */
+public class FileChunks {
+
+    // Big enough to keep per-task overhead low, small enough to spread one file over all cores
+    public static final long DEFAULT_CHUNK_SIZE = 8L * 1024 * 1024;
+
+    private FileChunks() {
+    }
+
+    // Returns the chunk boundaries of the file: chunk i covers [bounds[i], bounds[i + 1])
+    public static long[] split(FileChannel channel, long chunkSize) throws IOException {
+        long size = channel.size();
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        long position = 0;
+        while (size - position > chunkSize) {
+            long next = nextLineStart(channel, position + chunkSize, size, probe);
+            if (next >= size) break;
+            bounds.add(next);
+            position = next;
+        }
+        bounds.add(size);
+
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    // Maps one chunk read-only; the mapping stays valid after the channel is closed
+    public static MappedByteBuffer map(FileChannel channel, long start, long end) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+    }
+
+    // Position of the first byte after the next '\n' at or after "from", or the file size
+    private static long nextLineStart(FileChannel channel, long from, long size, ByteBuffer probe) throws IOException {
+        long position = from;
+        while (position < size) {
+            probe.clear();
+            int read = channel.read(probe, position);
+            if (read <= 0) break;
+            for (int i = 0; i < read; i++) {
+                if (probe.get(i) == '\n') return position + i + 1;
+            }
+            position += read;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,57 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.zip.CRC32C;
+
+/**
+ * The {@code FileHasher} class computes SHA-256 or CRC32C checksums of files. Every thread
+ * reads through its own large direct buffer, which the digest and the checksum consume
+ * without copying the data onto the Java heap. Use {@link HashCache} to avoid hashing
+ * unchanged files again.
+ */
+public class FileHasher {
+
+    enum Algorithm { SHA256, CRC32C }
+
+    static final int BUFFER_SIZE = 1024 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> BUFFERS = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    private FileHasher() {
+    }
+
+    // "sha256" or "crc32c", as given to the hash command
+    static Algorithm algorithm(String name) {
+        switch (name.toLowerCase()) {
+            case "sha256": case "sha-256": return Algorithm.SHA256;
+            case "crc32c": return Algorithm.CRC32C;
+            default: throw new IllegalArgumentException("unknown algorithm " + name + " (use sha256 or crc32c)");
+        }
+    }
+
+    // The checksum of the file as lowercase hex
+    public static String compute(Path file, Algorithm algorithm) throws IOException {
+        ByteBuffer buffer = BUFFERS.get();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (algorithm == Algorithm.CRC32C) {
+                CRC32C crc = new CRC32C();
+                while (channel.read(buffer.clear()) != -1) {
+                    crc.update(buffer.flip());
+                }
+                return String.format("%08x", crc.getValue());
+            }
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            while (channel.read(buffer.clear()) != -1) {
+                digest.update(buffer.flip());
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@code find [dir...] [-name glob] [-iname glob] [-type f|d|l] [-size [+|-]N[c|k|M|G]]
+ * [-mtime [+|-]N] [-mindepth N] [-maxdepth N] [-prune glob] [-pN]} prints every entry below the
+ * directories (the working directory by default) that passes all the given tests, like find(1):
+ * {@code -size} counts 512-byte blocks without a unit, {@code -mtime} whole days since the last
+ * change, and {@code +N} / {@code -N} mean more / less than N. Directories matching
+ * {@code -prune} are skipped with everything below them.
+ *
+ * The walk is done by {@link ParallelFind} on N threads (at least 4 by default, since it mostly
+ * waits for the file system); results are printed as they are found.
+ */
+public class FindCommand implements Command {
+
+    private static final String USAGE = "Usage: find [dir...] [-name glob] [-iname glob] [-type f|d|l] "
+            + "[-size [+|-]N[c|k|M|G]] [-mtime [+|-]N] [-mindepth N] [-maxdepth N] [-prune glob] [-pN]";
+
+    @Override
+    public String name() {
+        return "find";
+    }
+
+    @Override
+    public void run(CommandContext context) throws IOException, InterruptedException {
+        PrintStream out = context.out();
+        String[] args = context.args();
+        List<Path> roots = new ArrayList<>();
+        List<String> shown = new ArrayList<>();
+        int i = 0;
+        for (; i < args.length && !args[i].startsWith("-"); i++) {
+            List<Path> matches = context.terminal().expand(args[i]);
+            if (matches.isEmpty() || Files.notExists(matches.get(0))) {
+                out.println("File not found: " + args[i]);
+                continue;
+            }
+            for (Path match : matches) {
+                roots.add(match);
+                shown.add(context.terminal().shownAs(args[i], match));
+            }
+        }
+        if (i == 0) {
+            roots.add(context.terminal().cwd);
+            shown.add(".");
+        }
+
+        ParallelFind.Criteria criteria = new ParallelFind.Criteria();
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        try {
+            for (; i < args.length; i++) {
+                String test = args[i];
+                if (test.startsWith("-p") && test.length() > 2 && Character.isDigit(test.charAt(2))) {
+                    threads = Integer.parseInt(test.substring(2));
+                    continue;
+                }
+                if (i + 1 == args.length) throw new IllegalArgumentException("missing value for " + test);
+                String value = args[++i];
+                switch (test) {
+                    case "-name": criteria.name = ParallelFind.Criteria.glob(value, false); break;
+                    case "-iname":
+                        criteria.name = ParallelFind.Criteria.glob(value, true);
+                        criteria.ignoreCase = true;
+                        break;
+                    case "-type":
+                        if (!value.matches("[fdl]")) throw new IllegalArgumentException("unknown type " + value);
+                        criteria.type = value.charAt(0);
+                        break;
+                    case "-size": size(criteria, value); break;
+                    case "-mtime":
+                        criteria.mtimeSign = sign(value);
+                        criteria.mtimeDays = Long.parseLong(criteria.mtimeSign == 0 ? value : value.substring(1));
+                        criteria.mtime = true;
+                        break;
+                    case "-mindepth": criteria.minDepth = Integer.parseInt(value); break;
+                    case "-maxdepth": criteria.maxDepth = Integer.parseInt(value); break;
+                    case "-prune": criteria.prune = ParallelFind.Criteria.glob(value, false); break;
+                    default: throw new IllegalArgumentException("unknown test " + test);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            out.println("Error in find: " + e.getMessage());
+            out.println(USAGE);
+            return;
+        }
+        if (roots.isEmpty()) return;
+
+        context.terminal().printingData();
+        ParallelFind find = new ParallelFind(criteria, threads);
+        find.setProgress(context.terminal().progress());
+        find.find(roots, shown, out);
+    }
+
+    // "+N", "-N" or "N" with an optional unit: c bytes, k, M or G, 512-byte blocks without one
+    private static void size(ParallelFind.Criteria criteria, String value) {
+        criteria.sizeSign = sign(value);
+        String number = criteria.sizeSign == 0 ? value : value.substring(1);
+        char unit = number.isEmpty() ? ' ' : number.charAt(number.length() - 1);
+        switch (unit) {
+            case 'c': criteria.sizeUnit = 1; break;
+            case 'k': criteria.sizeUnit = 1024; break;
+            case 'M': criteria.sizeUnit = 1024 * 1024; break;
+            case 'G': criteria.sizeUnit = 1024L * 1024 * 1024; break;
+            default: criteria.sizeUnit = 512;
+        }
+        if (Character.isLetter(unit)) number = number.substring(0, number.length() - 1);
+        criteria.sizeValue = Long.parseLong(number);
+        criteria.size = true;
+    }
+
+    private static int sign(String value) {
+        return value.startsWith("+") ? 1 : value.startsWith("-") ? -1 : 0;
+    }
+}
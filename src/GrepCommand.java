@@ -0,0 +1,244 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * {@code grep [-r] [-c] [-l] pattern [file|dir...]} prints the lines that contain the pattern.
+ * With several files or {@code -r} every line is prefixed by its file name; {@code -c} prints
+ * the number of matching lines instead and {@code -l} only the names of files with a match.
+ * Without file arguments it searches the piped input, or with {@code -r} the working directory.
+ *
+ * The search itself is done by {@link ParallelGrep}. Files are cut into chunks that are searched
+ * ahead in parallel, up to a window of chunks and bytes, and each chunk's matches are printed in
+ * argument order as soon as the chunks before it are done.
+ */
+public class GrepCommand implements Command {
+
+    // Chunks searched ahead of the one being printed, and the file bytes they may cover at most,
+    // which bounds the matches held in memory
+    private static final int WINDOW = 4 * Runtime.getRuntime().availableProcessors();
+    private static final long MAX_AHEAD_BYTES = 64L * 1024 * 1024;
+
+    // A file to search and the name it is shown as
+    private static class Target {
+        final Path file;
+        final String name;
+
+        Target(Path file, String name) {
+            this.file = file;
+            this.name = name;
+        }
+    }
+
+    @Override
+    public String name() {
+        return "grep";
+    }
+
+    @Override
+    public void run(CommandContext context) throws IOException {
+        PrintStream out = context.out();
+        String[] args = context.args();
+        boolean recursive = false;
+        ParallelGrep.Mode mode = ParallelGrep.Mode.LINES;
+        int first = 0;
+        for (; first < args.length && args[first].startsWith("-") && args[first].length() > 1; first++) {
+            for (char flag : args[first].substring(1).toCharArray()) {
+                switch (flag) {
+                    case 'r': recursive = true; break;
+                    case 'c': mode = ParallelGrep.Mode.COUNT; break;
+                    case 'l': mode = ParallelGrep.Mode.FILES; break;
+                    default:
+                        out.println("Error: unknown grep option -" + flag);
+                        return;
+                }
+            }
+        }
+        if (first == args.length || (first == args.length - 1 && !recursive && context.in() == null)) {
+            out.println("Usage: grep [-r] [-c] [-l] <pattern> [file...]");
+            return;
+        }
+        ParallelGrep grep;
+        try {
+            grep = new ParallelGrep(args[first], mode);
+        } catch (PatternSyntaxException e) {
+            out.println("Error in grep: invalid pattern: " + e.getDescription());
+            return;
+        }
+        Progress progress = context.terminal().progress();
+        grep.setProgress(progress);
+
+        if (first == args.length - 1 && !recursive) {
+            long count = grep.search(context.in(), out);
+            if (mode == ParallelGrep.Mode.COUNT) out.println(count);
+            else if (mode == ParallelGrep.Mode.FILES && count > 0) out.println("(standard input)");
+            return;
+        }
+
+        List<Target> targets = new ArrayList<>();
+        if (first == args.length - 1) {
+            collect(context.terminal().cwd, null, targets);
+        }
+        for (int i = first + 1; i < args.length; i++) {
+            List<Path> matches = context.terminal().expand(args[i]);
+            if (matches.isEmpty() || Files.notExists(matches.get(0))) {
+                out.println("File not found: " + args[i]);
+                continue;
+            }
+            for (Path match : matches) {
+                String name = context.terminal().shownAs(args[i], match);
+                if (!Files.isDirectory(match))
+                    targets.add(new Target(match, name));
+                else if (recursive)
+                    collect(match, name, targets);
+                else
+                    out.println("Error: " + name + " is a directory");
+            }
+        }
+
+        boolean prefix = recursive || targets.size() > 1;
+        if (mode == ParallelGrep.Mode.LINES) context.terminal().printingData();
+        Printer printer = new Printer(prefix, mode, out);
+        Deque<Pending> pending = new ArrayDeque<>();
+        long ahead = 0;
+        try {
+            for (Target target : targets) {
+                if (progress.isCancelled()) break;
+                context.terminal().countRead(Files.size(target.file));
+                try (ParallelGrep.FileSearch search = grep.open(target.file, prefix ? target.name + ":" : "")) {
+                    while (search.hasNext() && !printer.listed(target) && !progress.isCancelled()) {
+                        // Print from the front before searching further ahead than the window allows
+                        while (pending.size() >= WINDOW || ahead >= MAX_AHEAD_BYTES) {
+                            ahead -= printer.print(pending.poll());
+                        }
+                        long size = search.nextSize();
+                        ahead += size;
+                        pending.add(new Pending(target, search.next(), size, !search.hasNext()));
+                    }
+                } catch (IOException e) {
+                    pending.add(new Pending(target, e.getMessage()));
+                }
+            }
+            while (!pending.isEmpty() && !progress.isCancelled()) {
+                printer.print(pending.poll());
+            }
+        } finally {
+            for (Pending chunk : pending) {
+                if (chunk.task != null) chunk.task.cancel(false);
+            }
+        }
+    }
+
+    // A chunk of a file being searched, or an error opening the file
+    private static class Pending {
+        final Target target;
+        final ForkJoinTask<ParallelGrep.Result> task;
+        final long size;
+        final boolean last;
+        final String error;
+
+        Pending(Target target, ForkJoinTask<ParallelGrep.Result> task, long size, boolean last) {
+            this.target = target;
+            this.task = task;
+            this.size = size;
+            this.last = last;
+            this.error = null;
+        }
+
+        Pending(Target target, String error) {
+            this.target = target;
+            this.task = null;
+            this.size = 0;
+            this.last = true;
+            this.error = error;
+        }
+    }
+
+    // Prints the chunks in order and keeps the count of the file they belong to
+    private static class Printer {
+        private final boolean prefix;
+        private final ParallelGrep.Mode mode;
+        private final PrintStream out;
+        private Target current;
+        private long count;
+        private boolean failed;
+
+        Printer(boolean prefix, ParallelGrep.Mode mode, PrintStream out) {
+            this.prefix = prefix;
+            this.mode = mode;
+            this.out = out;
+        }
+
+        // True once -l has printed the file, so its remaining chunks need not be searched
+        boolean listed(Target target) {
+            return target == current && mode == ParallelGrep.Mode.FILES && count > 0;
+        }
+
+        // Prints one chunk and returns the bytes of the file it covered
+        long print(Pending chunk) {
+            if (chunk.target != current) {
+                current = chunk.target;
+                count = 0;
+                failed = false;
+            }
+            if (failed || listed(chunk.target)) {
+                if (chunk.task != null) chunk.task.cancel(false);
+                return chunk.size;
+            }
+            ParallelGrep.Result result = null;
+            String error = chunk.error;
+            if (error == null) {
+                try {
+                    result = chunk.task.join();
+                } catch (RuntimeException e) {
+                    error = e.getMessage();
+                }
+            }
+            if (error != null) {
+                out.println("Error reading " + chunk.target.name + ": " + error);
+                failed = true;
+                return chunk.size;
+            }
+            count += result.count;
+            switch (mode) {
+                case LINES: out.write(result.lines, 0, result.lines.length); break;
+                case COUNT: if (chunk.last) out.println(prefix ? chunk.target.name + ":" + count : String.valueOf(count)); break;
+                case FILES: if (count > 0) out.println(chunk.target.name); break;
+            }
+            return chunk.size;
+        }
+    }
+
+    // Adds the regular files under dir, sorted by path; "name" is how dir is shown, null for the working directory
+    private static void collect(Path dir, String name, List<Target> targets) throws IOException {
+        List<Path> files = new ArrayList<>();
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) files.add(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        files.sort(null);
+        for (Path file : files) {
+            Path relative = dir.relativize(file);
+            targets.add(new Target(file, name == null ? relative.toString() : Paths.get(name).resolve(relative).toString()));
+        }
+    }
+}
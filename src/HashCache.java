@@ -0,0 +1,183 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * The {@code HashCache} class remembers file checksums across runs, keyed by absolute path,
+ * size and modification time: as long as those three still match, a file is not read again.
+ * It backs the {@code hash} command, {@code cp -r --hash} and the duplicate detection of
+ * {@code cp -r --dedupe} and {@code zip --dedupe}.
+ *
+ * The cache is one tab-separated file, {@code ~/.cli-hash-cache} unless the
+ * {@code cli.hashcache} system property names another, read the first time a checksum is
+ * needed and written back by {@link #save()} when new checksums were added.
+ */
+public class HashCache {
+
+    // Checksums of one file in the state it had when they were computed; either may be missing
+    private static class Entry {
+        final long size;
+        final long modified;
+        final String sha256;
+        final String crc32c;
+
+        Entry(long size, long modified, String sha256, String crc32c) {
+            this.size = size;
+            this.modified = modified;
+            this.sha256 = sha256;
+            this.crc32c = crc32c;
+        }
+
+        String get(FileHasher.Algorithm algorithm) {
+            return algorithm == FileHasher.Algorithm.SHA256 ? sha256 : crc32c;
+        }
+
+        Entry with(FileHasher.Algorithm algorithm, String hash) {
+            return algorithm == FileHasher.Algorithm.SHA256
+                    ? new Entry(size, modified, hash, crc32c)
+                    : new Entry(size, modified, sha256, hash);
+        }
+    }
+
+    private static class Holder {
+        static final HashCache SHARED = load(Paths.get(System.getProperty("cli.hashcache",
+                Paths.get(System.getProperty("user.home"), ".cli-hash-cache").toString())));
+    }
+
+    // The cache shared by every terminal in this process
+    public static HashCache shared() {
+        return Holder.SHARED;
+    }
+
+    private final Path file;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile boolean dirty;
+
+    private HashCache(Path file) {
+        this.file = file;
+    }
+
+    // Reads the cache file; a missing or damaged one gives an empty cache
+    static HashCache load(Path file) {
+        HashCache cache = new HashCache(file);
+        if (Files.notExists(file)) return cache;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", 5);
+                if (fields.length != 5) continue;
+                cache.entries.put(fields[4], new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+                        fields[2].equals("-") ? null : fields[2], fields[3].equals("-") ? null : fields[3]));
+            }
+        } catch (IOException | NumberFormatException e) {
+            cache.entries.clear();
+        }
+        return cache;
+    }
+
+    // The checksum of the file, from the cache while its size and modification time are unchanged
+    public String hash(Path path, FileHasher.Algorithm algorithm) throws IOException {
+        String key = path.toAbsolutePath().normalize().toString();
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        long modified = attrs.lastModifiedTime().toMillis();
+        Entry entry = entries.get(key);
+        if (entry != null && entry.size == attrs.size() && entry.modified == modified) {
+            String known = entry.get(algorithm);
+            if (known != null) return known;
+        } else {
+            entry = new Entry(attrs.size(), modified, null, null);
+        }
+        String hash = FileHasher.compute(path, algorithm);
+        entries.put(key, entry.with(algorithm, hash));
+        dirty = true;
+        return hash;
+    }
+
+    // Groups files by content: every file with the same SHA-256 as an earlier file in the list
+    // maps to that earlier file. Only files that share their size with another one are hashed,
+    // in parallel on "threads" threads; empty files are left alone. A file that cannot be sized
+    // or read counts as unique, so the caller handles it like any other file and reports its error.
+    public Map<Path, Path> duplicates(List<Path> files, int threads) {
+        Map<Long, List<Path>> bySize = new LinkedHashMap<>();
+        for (Path path : files) {
+            try {
+                long size = Files.size(path);
+                if (size > 0) bySize.computeIfAbsent(size, s -> new ArrayList<>()).add(path);
+            } catch (IOException e) {
+                // Unique
+            }
+        }
+        List<Path> candidates = new ArrayList<>();
+        List<Long> sizes = new ArrayList<>();
+        for (Map.Entry<Long, List<Path>> sameSize : bySize.entrySet()) {
+            if (sameSize.getValue().size() < 2) continue;
+            for (Path path : sameSize.getValue()) {
+                candidates.add(path);
+                sizes.add(sameSize.getKey());
+            }
+        }
+        Map<Path, Path> duplicates = new HashMap<>();
+        if (candidates.isEmpty()) return duplicates;
+
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        try {
+            List<ForkJoinTask<String>> hashes = new ArrayList<>();
+            for (Path path : candidates) {
+                hashes.add(pool.submit(() -> {
+                    try {
+                        return hash(path, FileHasher.Algorithm.SHA256);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+            }
+            // Size is part of the key so a hash collision between sizes can never merge files
+            Map<String, Path> first = new HashMap<>();
+            for (int i = 0; i < candidates.size(); i++) {
+                Path path = candidates.get(i);
+                String hash;
+                try {
+                    hash = hashes.get(i).join();
+                } catch (RuntimeException e) {
+                    continue;
+                }
+                Path earlier = first.putIfAbsent(sizes.get(i) + ":" + hash, path);
+                if (earlier != null) duplicates.put(path, earlier);
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return duplicates;
+    }
+
+    // Writes the cache back if anything was added since it was loaded or last saved
+    public synchronized void save() throws IOException {
+        if (!dirty) return;
+        dirty = false;
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                writer.write(entry.size + "\t" + entry.modified + "\t" + (entry.sha256 == null ? "-" : entry.sha256)
+                        + "\t" + (entry.crc32c == null ? "-" : entry.crc32c) + "\t" + e.getKey());
+                writer.newLine();
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
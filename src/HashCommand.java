@@ -0,0 +1,118 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Stream;
+
+/**
+ * {@code hash [-a sha256|crc32c] [-r] [-pN] file|dir...} prints one {@code checksum  name} line
+ * per file, like {@code sha256sum}. Files are hashed in parallel on N threads (all cores by
+ * default) and printed in argument order; {@code -r} hashes every file below a directory.
+ * Checksums come from the {@link HashCache} when a file has not changed since it was last hashed.
+ */
+public class HashCommand implements Command {
+
+    @Override
+    public String name() {
+        return "hash";
+    }
+
+    @Override
+    public void run(CommandContext context) throws IOException {
+        PrintStream out = context.out();
+        String[] args = context.args();
+        FileHasher.Algorithm algorithm = FileHasher.Algorithm.SHA256;
+        boolean recursive = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int first = 0;
+        try {
+            for (; first < args.length && args[first].startsWith("-") && args[first].length() > 1; first++) {
+                if (args[first].equals("-r"))
+                    recursive = true;
+                else if (args[first].equals("-a") && first + 1 < args.length)
+                    algorithm = FileHasher.algorithm(args[++first]);
+                else if (args[first].startsWith("-p") && args[first].length() > 2)
+                    threads = Integer.parseInt(args[first].substring(2));
+                else
+                    throw new IllegalArgumentException("unknown option " + args[first]);
+            }
+        } catch (IllegalArgumentException e) {
+            out.println("Error in hash: " + e.getMessage());
+            return;
+        }
+        // -p0 or a negative count still hashes, on one thread
+        threads = Math.max(1, threads);
+        if (first == args.length) {
+            out.println("Usage: hash [-a sha256|crc32c] [-r] [-pN] <file|dir>...");
+            return;
+        }
+
+        // Files with the name they are printed as
+        List<Path> files = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        for (int i = first; i < args.length; i++) {
+            List<Path> matches = context.terminal().expand(args[i]);
+            if (matches.isEmpty() || Files.notExists(matches.get(0))) {
+                out.println("File not found: " + args[i]);
+                continue;
+            }
+            for (Path match : matches) {
+                String name = context.terminal().shownAs(args[i], match);
+                if (!Files.isDirectory(match)) {
+                    files.add(match);
+                    names.add(name);
+                } else if (recursive) {
+                    try (Stream<Path> walk = Files.walk(match)) {
+                        walk.filter(Files::isRegularFile).sorted().forEach(file -> {
+                            files.add(file);
+                            names.add(Paths.get(name).resolve(match.relativize(file)).toString());
+                        });
+                    }
+                } else {
+                    out.println("Error: " + name + " is a directory");
+                }
+            }
+        }
+
+        HashCache cache = HashCache.shared();
+        FileHasher.Algorithm chosen = algorithm;
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            // Hash a bounded number of files ahead of the one being printed
+            Deque<ForkJoinTask<String>> pending = new ArrayDeque<>();
+            int submitted = 0;
+            for (int i = 0; i < files.size(); i++) {
+                while (submitted < files.size() && pending.size() < threads * 4) {
+                    Path file = files.get(submitted++);
+                    pending.add(pool.submit(() -> {
+                        try {
+                            return cache.hash(file, chosen);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }));
+                }
+                try {
+                    String hash = pending.poll().join();
+                    out.println(hash + "  " + names.get(i));
+                    context.terminal().countRead(Files.size(files.get(i)));
+                } catch (UncheckedIOException e) {
+                    out.println("Error reading " + names.get(i) + ": " + e.getCause().getMessage());
+                } catch (IOException e) {
+                    // Hashed and printed, but removed before its size could be counted
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        cache.save();
+    }
+}
@@ -0,0 +1,96 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@code head [-n N | -N] [file...]} prints the first N lines (10 by default) of each file, or
+ * of the piped input without file arguments. Reading stops at the N-th line break, so the cost
+ * depends on N and not on the size of the file. With several files each one gets a
+ * {@code ==> name <==} header.
+ */
+public class HeadCommand implements Command {
+
+    static final int DEFAULT_LINES = 10;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Override
+    public String name() {
+        return "head";
+    }
+
+    @Override
+    public void run(CommandContext context) throws IOException {
+        PrintStream out = context.out();
+        String[] args = context.args();
+        long lines = DEFAULT_LINES;
+        int first = 0;
+        try {
+            for (; first < args.length && args[first].startsWith("-") && args[first].length() > 1; first++) {
+                if (args[first].equals("-n") && first + 1 < args.length)
+                    lines = Long.parseLong(args[++first]);
+                else if (args[first].startsWith("-n"))
+                    lines = Long.parseLong(args[first].substring(2));
+                else
+                    lines = Long.parseLong(args[first].substring(1));
+            }
+        } catch (NumberFormatException e) {
+            out.println("Usage: head [-n N | -N] [file...]");
+            return;
+        }
+        context.terminal().printingData();
+        if (first == args.length) {
+            if (context.in() == null) {
+                out.println("Usage: head [-n N | -N] [file...]");
+                return;
+            }
+            context.terminal().countRead(copyLines(context.in(), lines, out));
+            return;
+        }
+
+        List<Path> files = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        for (int i = first; i < args.length; i++) {
+            List<Path> matches = context.terminal().expand(args[i]);
+            if (matches.isEmpty() || Files.notExists(matches.get(0))) {
+                out.println("File not found: " + args[i]);
+                continue;
+            }
+            for (Path match : matches) {
+                files.add(match);
+                names.add(context.terminal().shownAs(args[i], match));
+            }
+        }
+        for (int i = 0; i < files.size(); i++) {
+            if (files.size() > 1) out.println((i > 0 ? "\n" : "") + "==> " + names.get(i) + " <==");
+            if (Files.isDirectory(files.get(i))) {
+                out.println("Error: " + names.get(i) + " is a directory");
+                continue;
+            }
+            try (InputStream in = Files.newInputStream(files.get(i))) {
+                context.terminal().countRead(copyLines(in, lines, out));
+            }
+        }
+    }
+
+    // Copies the first "lines" lines of the stream to "out" and returns the number of bytes read
+    static long copyLines(InputStream in, long lines, PrintStream out) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long remaining = lines;
+        long total = 0;
+        int read;
+        while (remaining > 0 && (read = in.read(buffer)) != -1) {
+            total += read;
+            int end = 0;
+            while (end < read && remaining > 0) {
+                if (buffer[end++] == '\n') remaining--;
+            }
+            out.write(buffer, 0, end);
+        }
+        out.flush();
+        return total;
+    }
+}
@@ -0,0 +1,138 @@
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The {@code JobTable} class holds the background jobs of one {@link Terminal}. A command line
+ * ending in {@code &} is handed to {@link #start(Terminal)}, which runs it on a virtual thread in
+ * a terminal of its own (same working directory and output) and returns at once, so the next
+ * command can be typed while it works.
+ *
+ * Every job has a {@link Progress} the long operations report to, which {@code jobs} shows, and
+ * through which {@code kill} cancels it: the flag makes the commands that check it stop before
+ * their next file or block, and the job counts as killed only when its command did stop early.
+ * A finished job stays in the table until {@code jobs} has listed it or {@code wait} has
+ * collected it.
+ */
+public class JobTable {
+
+    enum State { RUNNING, DONE, KILLED }
+
+    static class Job {
+        final int id;
+        final String commandLine;
+        final Progress progress = new Progress();
+        final long started = System.nanoTime();
+        Thread thread;
+        volatile long finished;
+
+        Job(int id, String commandLine) {
+            this.id = id;
+            this.commandLine = commandLine;
+        }
+
+        State state() {
+            if (thread.isAlive()) return State.RUNNING;
+            return progress.stoppedEarly() ? State.KILLED : State.DONE;
+        }
+
+        long elapsedMillis() {
+            long end = thread.isAlive() ? System.nanoTime() : finished;
+            return (end - started) / 1_000_000;
+        }
+    }
+
+    static final long WAIT_POLL_MILLIS = 200;
+
+    private final Map<Integer, Job> jobs = new TreeMap<>();
+    private int lastId;
+
+    // Runs the parsed command line of "parent", minus its trailing "&", as a new job
+    public synchronized Job start(Terminal parent) {
+        Parser parser = parent.parser;
+        String[] args = parser.getArgs();
+        Job job = new Job(++lastId, commandLine(parser.getCommandName(), Arrays.copyOf(args, args.length - 1)));
+        // Job output and notices go to the terminal's own output, not a command's redirect
+        PrintStream out = parent.out;
+        Terminal terminal = new Terminal(null, out);
+        terminal.cwd = parent.cwd;
+        terminal.progress = job.progress;
+        terminal.jobs = this;
+        terminal.parser.commandName = parser.getCommandName();
+        terminal.parser.args = Arrays.copyOf(args, args.length - 1);
+        terminal.parser.operators = Arrays.copyOf(parser.operators, Math.min(parser.operators.length, args.length - 1));
+        jobs.put(job.id, job);
+        out.println("[" + job.id + "] " + job.commandLine);
+        job.thread = Thread.ofVirtual().name("job-" + job.id).unstarted(() -> {
+            try {
+                terminal.chooseCommandAction();
+            } finally {
+                job.finished = System.nanoTime();
+                out.println("[" + job.id + "] " + (job.progress.stoppedEarly() ? "Killed" : "Done") + "  " + job.commandLine);
+                out.flush();
+            }
+        });
+        job.thread.start();
+        return job;
+    }
+
+    // The job named "%n" or "n", or null
+    public synchronized Job get(String name) {
+        try {
+            return jobs.get(Integer.parseInt(name.startsWith("%") ? name.substring(1) : name));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // All jobs in the order they were started; finished ones are dropped from the table
+    public synchronized List<Job> list() {
+        List<Job> all = new ArrayList<>(jobs.values());
+        jobs.values().removeIf(job -> !job.thread.isAlive());
+        return all;
+    }
+
+    // Waits for the job to finish and drops it from the table; gives up and returns false when
+    // "own", the progress of the waiting command, is cancelled meanwhile
+    public boolean await(Job job, Progress own) throws InterruptedException {
+        while (!job.thread.join(Duration.ofMillis(WAIT_POLL_MILLIS))) {
+            if (own != null && own.isCancelled()) return false;
+        }
+        synchronized (this) {
+            jobs.remove(job.id);
+        }
+        return true;
+    }
+
+    // Waits for every job except the one whose progress is "own", which is the caller itself
+    // when a job runs wait
+    public void awaitAll(Progress own) throws InterruptedException {
+        for (Job job : list()) {
+            if (job.progress != own && !await(job, own)) return;
+        }
+    }
+
+    // Sets the job's cancel flag; the thread is not interrupted, since that would break off the
+    // channel I/O of commands that do not check the flag and leave their files half written
+    public synchronized void cancel(Job job) {
+        job.progress.cancel();
+    }
+
+    public synchronized void cancelAll() {
+        for (Job job : jobs.values()) {
+            if (job.thread.isAlive()) cancel(job);
+        }
+    }
+
+    private static String commandLine(String name, String[] args) {
+        StringBuilder line = new StringBuilder(name);
+        for (String arg : args) {
+            line.append(' ').append(arg.isEmpty() || arg.contains(" ") ? "\"" + arg + "\"" : arg);
+        }
+        return line.toString();
+    }
+}
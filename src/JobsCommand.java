@@ -0,0 +1,39 @@
+import java.io.PrintStream;
+import java.util.List;
+
+/**
+ * {@code jobs} lists the background jobs of the terminal with their state, the files and bytes
+ * they have got through so far, their run time and their command line. Jobs that have finished
+ * are listed one last time and then forgotten.
+ */
+public class JobsCommand implements Command {
+
+    @Override
+    public String name() {
+        return "jobs";
+    }
+
+    @Override
+    public void run(CommandContext context) {
+        PrintStream out = context.out();
+        List<JobTable.Job> jobs = context.terminal().jobs().list();
+        for (JobTable.Job job : jobs) {
+            long seconds = job.elapsedMillis() / 1000;
+            out.printf("[%d] %-8s %8d files %14d bytes %4d:%02d  %s%n", job.id, label(job.state()),
+                    job.progress.files(), job.progress.bytes(), seconds / 60, seconds % 60, job.commandLine);
+        }
+    }
+
+    private static String label(JobTable.State state) {
+        switch (state) {
+            case RUNNING: return "Running";
+            case KILLED: return "Killed";
+            default: return "Done";
+        }
+    }
+
+    @Override
+    public FileAccess fileAccess() {
+        return FileAccess.NONE;
+    }
+}
@@ -0,0 +1,41 @@
+import java.io.PrintStream;
+
+/**
+ * {@code kill %n...} cancels background jobs. Cancellation is cooperative: {@code cp -r},
+ * {@code rm -r}, {@code zip}, {@code unzip}, {@code cat}, {@code grep}, {@code sort},
+ * {@code ls -R}, {@code find}, {@code tail -f} and {@code wait} stop before their next file or
+ * block and the job ends as {@code Killed}; other commands run to the end and report
+ * {@code Done}. {@code wait %n} waits for either.
+ */
+public class KillCommand implements Command {
+
+    @Override
+    public String name() {
+        return "kill";
+    }
+
+    @Override
+    public void run(CommandContext context) {
+        PrintStream out = context.out();
+        if (context.args().length == 0) {
+            out.println("Usage: kill %n...");
+            return;
+        }
+        JobTable table = context.terminal().jobs();
+        for (String arg : context.args()) {
+            JobTable.Job job = table.get(arg);
+            if (job == null) {
+                out.println("Error in kill: no such job " + arg);
+            } else if (job.state() != JobTable.State.RUNNING) {
+                out.println("Error in kill: job " + arg + " has already finished");
+            } else {
+                table.cancel(job);
+            }
+        }
+    }
+
+    @Override
+    public FileAccess fileAccess() {
+        return FileAccess.NONE;
+    }
+}
@@ -1,15 +1,28 @@
-import java.util.Scanner;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
 
 public class Main {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
+        // java Main -f <script> runs a script file (or stdin with "-") without prompting
+        if (args.length == 2 && args[0].equals("-f")) {
+            ScriptRunner.run(args[1]);
+            return;
+        }
+        // java Main --server <port | unix:path> serves many client sessions at once
+        if (args.length == 2 && args[0].equals("--server")) {
+            CommandServer.open(args[1]).serve();
+            return;
+        }
+
         Terminal terminal = new Terminal();
-        Scanner input = new Scanner(System.in);
+        // A plain reader rather than Scanner, which pulls in regex and locale data at startup
+        BufferedReader input = new BufferedReader(new InputStreamReader(System.in));
 
         while (true) {
-            String text = input.nextLine();
+            String text = input.readLine();
 
-            if (text.equalsIgnoreCase("exit")) break;
+            if (text == null || text.equalsIgnoreCase("exit")) break;
 
             if (terminal.parser.parse(text)) {
                 terminal.chooseCommandAction();
@@ -17,5 +30,6 @@ public class Main {
                 System.out.println("Invalid command.");
             }
         }
+        terminal.endJobs(true);
     }
 }
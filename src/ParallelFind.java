@@ -0,0 +1,207 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@code ParallelFind} class is the search engine behind the {@code find} command. Every
+ * directory is read by its own fork-join task, which checks its entries against the
+ * {@link Criteria} and forks the tasks of its subdirectories, so the tree is walked on all
+ * threads at once. The attributes of each entry are read once, without following symbolic
+ * links, and serve both the tests and the decision to descend. Subtrees below the maximum depth
+ * or matching a prune pattern are never opened.
+ *
+ * Matches are handed over per directory and printed by the calling thread while the walk goes
+ * on, so the first results appear right away; their order follows the walk, not the names.
+ */
+public class ParallelFind {
+
+    // The tests an entry has to pass; unset tests pass everything
+    static class Criteria {
+        PathMatcher name;
+        boolean ignoreCase;
+        // 'f' regular file, 'd' directory, 'l' symbolic link, 0 for any
+        char type;
+        // Size in units of sizeUnit bytes (rounded up) compared with sizeValue: -1 less, 0 equal, 1 more
+        long sizeUnit;
+        long sizeValue;
+        int sizeSign;
+        boolean size;
+        // Age in whole days compared with mtimeDays the same way
+        long mtimeDays;
+        int mtimeSign;
+        boolean mtime;
+        int minDepth = 0;
+        int maxDepth = Integer.MAX_VALUE;
+        // Directories whose name matches are neither printed nor entered
+        PathMatcher prune;
+
+        static PathMatcher glob(String pattern, boolean ignoreCase) {
+            return FileSystems.getDefault().getPathMatcher("glob:" + (ignoreCase ? pattern.toLowerCase() : pattern));
+        }
+
+        boolean matches(String fileName, BasicFileAttributes attrs, int depth, long now) {
+            if (depth < minDepth) return false;
+            if (type == 'f' && !attrs.isRegularFile()) return false;
+            if (type == 'd' && !attrs.isDirectory()) return false;
+            if (type == 'l' && !attrs.isSymbolicLink()) return false;
+            if (name != null && !name.matches(Paths.get(ignoreCase ? fileName.toLowerCase() : fileName))) return false;
+            if (size && !compare((attrs.size() + sizeUnit - 1) / sizeUnit, sizeValue, sizeSign)) return false;
+            if (mtime) {
+                long days = (now - attrs.lastModifiedTime().toMillis()) / TimeUnit.DAYS.toMillis(1);
+                if (!compare(days, mtimeDays, mtimeSign)) return false;
+            }
+            return true;
+        }
+
+        private static boolean compare(long actual, long expected, int sign) {
+            return sign < 0 ? actual < expected : sign > 0 ? actual > expected : actual == expected;
+        }
+    }
+
+    private final Criteria criteria;
+    private final int threads;
+    private final long now = System.currentTimeMillis();
+    // The matches of one directory each, as text ready to print
+    private final BlockingQueue<String> batches = new LinkedBlockingQueue<>();
+    private final AtomicLong found = new AtomicLong();
+    private Progress progress = new Progress();
+
+    public ParallelFind(Criteria criteria, int threads) {
+        this.criteria = criteria;
+        this.threads = Math.max(1, threads);
+    }
+
+    // Checked before each directory is read; once cancelled the walk winds down
+    public void setProgress(Progress progress) {
+        this.progress = progress;
+    }
+
+    // Walks every root and prints the matches as they are found; "shown" is how each root is
+    // printed. Returns the number of matches.
+    public long find(List<Path> roots, List<String> shown, PrintStream out) throws InterruptedException {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<RecursiveAction> tasks = new ArrayList<>();
+            for (int i = 0; i < roots.size(); i++) {
+                tasks.add(new RootTask(roots.get(i), shown.get(i)));
+            }
+            ForkJoinTask<?> walk = pool.submit(() -> {
+                try {
+                    ForkJoinTask.invokeAll(tasks);
+                } finally {
+                    // Batches are never empty, so an empty one marks the end of the walk
+                    batches.add("");
+                }
+            });
+            String batch;
+            while (!(batch = batches.take()).isEmpty()) {
+                out.print(batch);
+                out.flush();
+            }
+            walk.join();
+            return found.get();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void emit(StringBuilder batch) {
+        if (batch.length() > 0) batches.add(batch.toString());
+    }
+
+    // The start of the walk: the root itself at depth 0, then its contents
+    @SuppressWarnings("serial")
+    private class RootTask extends RecursiveAction {
+        private final Path root;
+        private final String shown;
+
+        RootTask(Path root, String shown) {
+            this.root = root;
+            this.shown = shown;
+        }
+
+        @Override
+        protected void compute() {
+            BasicFileAttributes attrs = attributes(root);
+            if (attrs == null) {
+                emit(new StringBuilder("Error: cannot read ").append(shown).append('\n'));
+                return;
+            }
+            String name = root.getFileName() == null ? shown : root.getFileName().toString();
+            if (criteria.matches(name, attrs, 0, now)) {
+                found.incrementAndGet();
+                emit(new StringBuilder(shown).append('\n'));
+            }
+            if (attrs.isDirectory() && criteria.maxDepth > 0) {
+                new DirectoryTask(root, Paths.get(shown), 1).compute();
+            }
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private class DirectoryTask extends RecursiveAction {
+        private final Path dir;
+        private final Path shown;
+        // Depth of the entries of this directory
+        private final int depth;
+
+        DirectoryTask(Path dir, Path shown, int depth) {
+            this.dir = dir;
+            this.shown = shown;
+            this.depth = depth;
+        }
+
+        @Override
+        protected void compute() {
+            if (progress.isCancelled()) return;
+            StringBuilder batch = new StringBuilder();
+            List<DirectoryTask> subdirectories = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path child : stream) {
+                    BasicFileAttributes attrs = attributes(child);
+                    if (attrs == null) continue;
+                    String name = child.getFileName().toString();
+                    if (attrs.isDirectory() && criteria.prune != null && criteria.prune.matches(child.getFileName())) {
+                        continue;
+                    }
+                    if (criteria.matches(name, attrs, depth, now)) {
+                        found.incrementAndGet();
+                        batch.append(shown.resolve(name)).append('\n');
+                    }
+                    if (attrs.isDirectory() && depth < criteria.maxDepth) {
+                        subdirectories.add(new DirectoryTask(child, shown.resolve(name), depth + 1));
+                    }
+                }
+            } catch (IOException e) {
+                batch.append("Error reading ").append(shown).append(": ").append(e.getMessage()).append('\n');
+            }
+            emit(batch);
+            invokeAll(subdirectories);
+        }
+    }
+
+    // Attributes of the entry itself (not a link target), or null when it vanished meanwhile
+    private static BasicFileAttributes attributes(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The {@code ParallelGrep} class is the search engine behind the {@code grep} command. Files
+ * are memory-mapped in line-aligned chunks (see {@link FileChunks}) and the chunks of all files
+ * are searched on the common fork-join pool. A {@link FileSearch} hands the chunks of a file out
+ * one at a time, so the caller keeps only a window of them in flight and prints each chunk's
+ * matches as soon as its turn comes.
+ *
+ * A pattern without regex metacharacters is searched for with Boyer-Moore-Horspool directly
+ * in the mapped bytes, so lines without a match are skipped without being looked at one by one.
+ * Any other pattern is a {@link Pattern} run over the decoded chunk, and each match is widened
+ * to the line it is on.
+ */
+public class ParallelGrep {
+
+    enum Mode {
+        // Print the matching lines
+        LINES,
+        // Count the matching lines
+        COUNT,
+        // Only find out whether there is a match
+        FILES
+    }
+
+    // The matches of one chunk; "lines" holds the output lines in LINES mode
+    static class Result {
+        final long count;
+        final byte[] lines;
+
+        Result(long count, byte[] lines) {
+            this.count = count;
+            this.lines = lines;
+        }
+    }
+
+    private static final String METACHARACTERS = ".[]{}()\\*+?^$|";
+
+    private final Mode mode;
+    // Set for literal patterns: the UTF-8 bytes and the Horspool shift table
+    private final byte[] literal;
+    private final int[] shift;
+    private final Pattern regex;
+    private Progress progress = new Progress();
+
+    public ParallelGrep(String pattern, Mode mode) {
+        this.mode = mode;
+        if (isLiteral(pattern)) {
+            literal = pattern.getBytes(StandardCharsets.UTF_8);
+            shift = new int[256];
+            Arrays.fill(shift, literal.length);
+            for (int i = 0; i < literal.length - 1; i++) {
+                shift[literal[i] & 0xff] = literal.length - 1 - i;
+            }
+            regex = null;
+        } else {
+            literal = null;
+            shift = null;
+            // MULTILINE: ^ and $ match at every line, since a chunk is searched as a whole
+            regex = Pattern.compile(pattern, Pattern.MULTILINE);
+        }
+    }
+
+    // Checked before each block of piped input; once cancelled the search stops
+    public void setProgress(Progress progress) {
+        this.progress = progress;
+    }
+
+    static boolean isLiteral(String pattern) {
+        if (pattern.isEmpty()) return false;
+        for (int i = 0; i < pattern.length(); i++) {
+            if (METACHARACTERS.indexOf(pattern.charAt(i)) >= 0) return false;
+        }
+        return true;
+    }
+
+    // Opens the file for a search chunk by chunk; output lines start with "prefix"
+    public FileSearch open(Path file, String prefix) throws IOException {
+        return new FileSearch(file, prefix.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Searches a stream as it arrives (a pipeline's input) and writes matching lines straight to "sink"
+    public long search(InputStream in, OutputStream sink) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        int filled = 0;
+        long count = 0;
+        int read;
+        while ((read = in.read(buffer, filled, buffer.length - filled)) != -1) {
+            if (progress.isCancelled()) return count;
+            filled += read;
+            int end = filled;
+            while (end > 0 && buffer[end - 1] != '\n') end--;
+            if (end == 0) {
+                // No complete line yet; a line longer than the buffer makes it grow
+                if (filled == buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                continue;
+            }
+            count += search(ByteBuffer.wrap(buffer), 0, end, new byte[0], sink);
+            if (mode == Mode.FILES && count > 0) return count;
+            sink.flush();
+            System.arraycopy(buffer, end, buffer, 0, filled - end);
+            filled -= end;
+        }
+        if (filled > 0)
+            count += search(ByteBuffer.wrap(buffer), 0, filled, new byte[0], sink);
+        sink.flush();
+        return count;
+    }
+
+    // Searches the lines in [from, to) of the buffer; "from" must be the start of a line
+    private long search(ByteBuffer buffer, int from, int to, byte[] prefix, OutputStream sink) throws IOException {
+        return literal != null ? searchLiteral(buffer, from, to, prefix, sink) : searchRegex(buffer, from, to, prefix, sink);
+    }
+
+    private long searchLiteral(ByteBuffer buffer, int from, int to, byte[] prefix, OutputStream sink) throws IOException {
+        long count = 0;
+        int position = from;
+        while (position < to) {
+            int hit = indexOf(buffer, position, to);
+            if (hit < 0) break;
+            int start = hit;
+            while (start > position && buffer.get(start - 1) != '\n') start--;
+            int end = hit + literal.length;
+            while (end < to && buffer.get(end) != '\n') end++;
+            count++;
+            if (mode == Mode.FILES) return count;
+            if (mode == Mode.LINES) {
+                byte[] line = new byte[end - start];
+                buffer.get(start, line);
+                sink.write(prefix);
+                sink.write(line);
+                sink.write('\n');
+            }
+            position = end + 1;
+        }
+        return count;
+    }
+
+    // Boyer-Moore-Horspool: start of the first occurrence of the literal in [from, to), or -1
+    private int indexOf(ByteBuffer buffer, int from, int to) {
+        int last = literal.length - 1;
+        byte lastByte = literal[last];
+        int i = from;
+        while (i + last < to) {
+            byte b = buffer.get(i + last);
+            if (b == lastByte) {
+                int j = last - 1;
+                while (j >= 0 && buffer.get(i + j) == literal[j]) j--;
+                if (j < 0) return i;
+            }
+            i += shift[b & 0xff];
+        }
+        return -1;
+    }
+
+    // The whole chunk is searched in one pass; a match is only taken apart into its line when
+    // it spans a line break, in which case that line is searched again on its own
+    private long searchRegex(ByteBuffer buffer, int from, int to, byte[] prefix, OutputStream sink) throws IOException {
+        byte[] bytes = new byte[to - from];
+        buffer.get(from, bytes);
+        String text = new String(bytes, StandardCharsets.UTF_8);
+        Matcher matcher = regex.matcher(text);
+        long count = 0;
+        int position = 0;
+        while (position < text.length() && matcher.find(position)) {
+            int start = text.lastIndexOf('\n', matcher.start() - 1) + 1;
+            int end = text.indexOf('\n', matcher.start());
+            if (end < 0) end = text.length();
+            if (matcher.end() <= end || matcher.region(start, end).find()) {
+                count++;
+                if (mode == Mode.FILES) return count;
+                if (mode == Mode.LINES) {
+                    sink.write(prefix);
+                    sink.write(text.substring(start, end).getBytes(StandardCharsets.UTF_8));
+                    sink.write('\n');
+                }
+            }
+            position = end + 1;
+        }
+        return count;
+    }
+
+    // The chunks of one file, each mapped and handed to the common pool only when asked for, so
+    // the caller decides how many of them are in flight and their output is never held for
+    // more than that window
+    class FileSearch implements AutoCloseable {
+        private final FileChannel channel;
+        private final long[] bounds;
+        private final byte[] prefix;
+        private int next;
+
+        private FileSearch(Path file, byte[] prefix) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                this.bounds = FileChunks.split(channel, FileChunks.DEFAULT_CHUNK_SIZE);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            this.prefix = prefix;
+        }
+
+        boolean hasNext() {
+            return next < bounds.length - 1;
+        }
+
+        // Bytes of the file the next chunk covers
+        long nextSize() {
+            return bounds[next + 1] - bounds[next];
+        }
+
+        // Starts searching the next chunk; the mapping outlives the channel
+        ForkJoinTask<Result> next() throws IOException {
+            long start = bounds[next], end = bounds[++next];
+            ByteBuffer buffer = end > start ? FileChunks.map(channel, start, end) : ByteBuffer.allocate(0);
+            return ForkJoinPool.commonPool().submit(new ChunkTask(buffer, prefix));
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private class ChunkTask extends RecursiveTask<Result> {
+        private final ByteBuffer buffer;
+        private final byte[] prefix;
+
+        ChunkTask(ByteBuffer buffer, byte[] prefix) {
+            this.buffer = buffer;
+            this.prefix = prefix;
+        }
+
+        @Override
+        protected Result compute() {
+            try {
+                ByteArrayOutputStream lines = new ByteArrayOutputStream();
+                long count = search(buffer, 0, buffer.limit(), prefix, lines);
+                return new Result(count, lines.toByteArray());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * The {@code ParallelUnzip} class extracts an archive through its central directory
+ * ({@link ZipFile}) instead of reading it front to back. Only the entries that match the
+ * requested names or globs are touched, the target directories are created up front and
+ * the file entries are then inflated on a pool of worker threads.
+ *
+ * On cancellation the entries not started yet are skipped and the ones being written are
+ * finished; a file whose copy fails halfway is deleted, so only complete files are left.
+ */
+public class ParallelUnzip {
+
+    private final int threads;
+    private final List<String> patterns;
+    private final List<PathMatcher> matchers = new ArrayList<>();
+    private final PrintStream out;
+    private Progress progress = new Progress();
+
+    public ParallelUnzip(int threads, List<String> patterns, PrintStream out) {
+        this.threads = Math.max(1, threads);
+        this.patterns = patterns;
+        this.out = out;
+        for (String pattern : patterns) {
+            matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + pattern));
+        }
+    }
+
+    // Counts every extracted file; once cancelled the entries not started yet are skipped
+    public void setProgress(Progress progress) {
+        this.progress = progress;
+    }
+
+    // Extracts the selected entries into dest and returns how many files were written
+    public int extract(Path zipFile, Path dest) throws IOException, InterruptedException {
+        Path root = dest.toAbsolutePath().normalize();
+        try (ZipFile zip = new ZipFile(zipFile.toFile())) {
+            List<ZipEntry> files = new ArrayList<>();
+            Set<Path> directories = new LinkedHashSet<>();
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (!matches(entry.getName())) continue;
+                Path target;
+                try {
+                    target = root.resolve(entry.getName()).normalize();
+                } catch (InvalidPathException e) {
+                    // Legal in a zip, but not a file name here (e.g. ':' or NUL)
+                    out.println("Skipping entry with an invalid name: " + entry.getName());
+                    continue;
+                }
+                if (!target.startsWith(root)) {
+                    out.println("Skipping entry outside the destination: " + entry.getName());
+                    continue;
+                }
+                if (entry.isDirectory()) {
+                    directories.add(target);
+                } else {
+                    files.add(entry);
+                    if (target.getParent() != null) directories.add(target.getParent());
+                }
+            }
+            for (Path directory : directories) {
+                Files.createDirectories(directory);
+            }
+
+            ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, files.size())));
+            List<Future<Boolean>> results = new ArrayList<>();
+            try {
+                for (ZipEntry entry : files) {
+                    results.add(pool.submit(() -> {
+                        if (progress.isCancelled()) return false;
+                        Path target = root.resolve(entry.getName()).normalize();
+                        try (InputStream in = zip.getInputStream(entry)) {
+                            progress.file(Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING));
+                        } catch (IOException | RuntimeException e) {
+                            // A file that was not written to the end must not look extracted
+                            Files.deleteIfExists(target);
+                            throw e;
+                        }
+                        return true;
+                    }));
+                }
+                int extracted = 0;
+                for (int i = 0; i < files.size(); i++) {
+                    try {
+                        if (results.get(i).get()) extracted++;
+                    } catch (ExecutionException e) {
+                        out.println("Error extracting " + files.get(i).getName() + ": " + e.getCause().getMessage());
+                    }
+                }
+                return extracted;
+            } finally {
+                // Entries not started yet are dropped, but the copies under way are left to
+                // finish: the zip file must stay open until no worker reads from it anymore
+                for (Future<Boolean> result : results) result.cancel(false);
+                awaitWorkers(pool);
+            }
+        }
+    }
+
+    // Shuts the pool down and waits for its workers even when the calling thread is interrupted
+    private static void awaitWorkers(ExecutorService pool) {
+        pool.shutdown();
+        boolean interrupted = false;
+        while (!pool.isTerminated()) {
+            try {
+                pool.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    // With no patterns every entry is extracted; a pattern matches the whole entry name or its last
+    // part. A name that is no valid path here can only match a pattern spelled out in full
+    private boolean matches(String name) {
+        if (patterns.isEmpty()) return true;
+        String trimmed = name.endsWith("/") ? name.substring(0, name.length() - 1) : name;
+        Path path;
+        try {
+            path = Paths.get(trimmed);
+        } catch (InvalidPathException e) {
+            return patterns.contains(trimmed);
+        }
+        Path fileName = path.getFileName();
+        for (int i = 0; i < patterns.size(); i++) {
+            if (trimmed.equals(patterns.get(i))) return true;
+            if (matchers.get(i).matches(path)) return true;
+            if (fileName != null && matchers.get(i).matches(fileName)) return true;
+        }
+        return false;
+    }
+}
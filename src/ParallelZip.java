@@ -0,0 +1,398 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * The {@code ParallelZip} class builds a zip archive with the entries compressed on a pool
+ * of worker threads. Each worker deflates one file into its own buffer (or a temporary
+ * segment file for large entries), and the calling thread writes the finished entries to
+ * the archive in their original order, followed by the central directory.
+ *
+ * Entries can be deflated at a chosen level or kept STORED, which is the fast choice for
+ * data that is already compressed. The archive is written without zip64 records, so a
+ * single entry or the whole archive must stay under 4 GiB.
+ *
+ * With deduplication on, a file whose content (found through the {@link HashCache}) equals an
+ * earlier one is not read or compressed again: it gets a local header of its own, followed by a
+ * copy of the compressed data of the earlier entry read back from the archive, so every entry is
+ * a regular one that any zip tool can extract.
+ */
+public class ParallelZip {
+
+    // Entries larger than this are deflated into a temp file instead of the heap
+    static final long IN_MEMORY_LIMIT = 16L * 1024 * 1024;
+    private static final long ZIP32_LIMIT = 0xFFFFFFFFL;
+
+    private final int level;
+    private final boolean store;
+    private final int threads;
+    private final boolean dedupe;
+    private final PrintStream out;
+    private Progress progress = new Progress();
+    // Set when the archive is given up, so compressions still queued or running stop early
+    private volatile boolean abandoned;
+
+    public ParallelZip(int level, boolean store, int threads, PrintStream out) {
+        this(level, store, threads, false, out);
+    }
+
+    public ParallelZip(int level, boolean store, int threads, boolean dedupe, PrintStream out) {
+        this.level = level;
+        this.store = store;
+        this.threads = Math.max(1, threads);
+        this.dedupe = dedupe;
+        this.out = out;
+    }
+
+    // Counts every entry written; once cancelled the archive is abandoned before the next entry
+    public void setProgress(Progress progress) {
+        this.progress = progress;
+    }
+
+    // One file to add to the archive under the given entry name
+    public static class Source {
+        final String name;
+        final Path file;
+
+        public Source(String name, Path file) {
+            this.name = name;
+            this.file = file;
+        }
+    }
+
+    // A compressed entry waiting to be written to the archive
+    private static class Compressed {
+        final byte[] name;
+        final int method;
+        final long crc;
+        final long size;
+        final long compressedSize;
+        final int dosTime;
+        // The entry data is either in memory or in a file; temp segments are deleted once written
+        final byte[] data;
+        final Path dataFile;
+        final boolean temporary;
+        long offset;
+
+        Compressed(byte[] name, int method, long crc, long size, long compressedSize, int dosTime,
+                   byte[] data, Path dataFile, boolean temporary) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.compressedSize = compressedSize;
+            this.dosTime = dosTime;
+            this.data = data;
+            this.dataFile = dataFile;
+            this.temporary = temporary;
+        }
+
+        // The same data under another name, for a duplicate; its data is copied from this entry
+        Compressed alias(byte[] name) {
+            return new Compressed(name, method, crc, size, compressedSize, dosTime, null, null, false);
+        }
+
+        // Where the entry data starts in the archive, right after the local header
+        long dataOffset() {
+            return offset + 30 + name.length;
+        }
+    }
+
+    // Compresses all sources and writes the archive; returns the number of entries written
+    public int write(List<Source> sources, Path zipFile) throws IOException, InterruptedException {
+        Map<Path, Path> duplicates = new HashMap<>();
+        if (dedupe) {
+            List<Path> files = new ArrayList<>();
+            for (Source source : sources) files.add(source.file);
+            duplicates = HashCache.shared().duplicates(files, threads);
+            HashCache.shared().save();
+        }
+        Map<Path, Compressed> originals = new HashMap<>();
+        abandoned = false;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Compressed> written = new ArrayList<>();
+        Deque<Future<Compressed>> pending = new ArrayDeque<>();
+        // Only keep a few entries ahead of the writer so memory stays bounded
+        int window = threads * 2;
+        try (CountingOutputStream zip = new CountingOutputStream(
+                new BufferedOutputStream(new FileOutputStream(zipFile.toFile()), 64 * 1024))) {
+            int next = 0;
+            for (int i = 0; i < sources.size(); i++) {
+                if (progress.isCancelled())
+                    throw new IOException("cancelled after " + written.size() + " entries");
+                while (next < sources.size() && pending.size() < window) {
+                    Source source = sources.get(next++);
+                    // Duplicates are not compressed at all, they reuse the data of their original
+                    if (duplicates.containsKey(source.file))
+                        pending.add(CompletableFuture.completedFuture(null));
+                    else
+                        pending.add(pool.submit(() -> compress(source)));
+                }
+                Source source = sources.get(i);
+                Compressed entry;
+                try {
+                    entry = pending.poll().get();
+                } catch (ExecutionException e) {
+                    out.println("Error processing file in zip: " + source.file + ": " + e.getCause().getMessage());
+                    continue;
+                }
+                if (entry == null) {
+                    Compressed original = originals.get(duplicates.get(source.file));
+                    if (original == null) {
+                        out.println("Error processing file in zip: " + source.file + ": the file it duplicates was not added");
+                        continue;
+                    }
+                    Compressed alias = original.alias(source.name.getBytes(StandardCharsets.UTF_8));
+                    if (zip.count > ZIP32_LIMIT)
+                        throw new IOException("archive is larger than 4 GiB, use zip without -p or -s");
+                    alias.offset = zip.count;
+                    writeLocalHeader(zip, alias);
+                    // The original's data is already in the archive; flush it out and copy it back
+                    zip.flush();
+                    copyRange(zipFile, original.dataOffset(), original.compressedSize, zip);
+                    written.add(alias);
+                    progress.file(alias.size);
+                    continue;
+                }
+                try {
+                    if (zip.count > ZIP32_LIMIT)
+                        throw new IOException("archive is larger than 4 GiB, use zip without -p or -s");
+                    entry.offset = zip.count;
+                    writeLocalHeader(zip, entry);
+                    if (entry.data != null)
+                        zip.write(entry.data);
+                    else
+                        Files.copy(entry.dataFile, zip);
+                    written.add(entry);
+                    progress.file(entry.size);
+                    if (dedupe) originals.put(source.file, entry);
+                } finally {
+                    if (entry.temporary) Files.deleteIfExists(entry.dataFile);
+                }
+            }
+            if (written.size() > 0xFFFF)
+                throw new IOException("too many entries for one archive, use zip without -p or -s");
+            writeCentralDirectory(zip, written);
+        } finally {
+            // Entries not written by now never will be; wait for the workers so that every temp
+            // segment they made can be removed, not just those of tasks that had finished
+            abandoned = true;
+            awaitWorkers(pool);
+            for (Future<Compressed> future : pending) {
+                discard(future);
+            }
+        }
+        return written.size();
+    }
+
+    private Compressed compress(Source source) throws IOException {
+        if (abandoned) throw new IOException("archive abandoned");
+        long size = Files.size(source.file);
+        if (size >= ZIP32_LIMIT)
+            throw new IOException("file is larger than 4 GiB");
+        byte[] name = source.name.getBytes(StandardCharsets.UTF_8);
+        int dosTime = dosTime(Files.getLastModifiedTime(source.file));
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+
+        if (store) {
+            try (InputStream in = Files.newInputStream(source.file)) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    if (abandoned) throw new IOException("archive abandoned");
+                    crc.update(buffer, 0, read);
+                }
+            }
+            // Stored entries are copied straight from the file when the archive is written
+            return new Compressed(name, 0, crc.getValue(), size, size, dosTime, null, source.file, false);
+        }
+
+        Path segment = size > IN_MEMORY_LIMIT ? Files.createTempFile("zip", ".part") : null;
+        ByteArrayOutputStream memory = segment == null ? new ByteArrayOutputStream((int) Math.min(size, IN_MEMORY_LIMIT) / 2 + 64) : null;
+        Deflater deflater = new Deflater(level, true);
+        try (InputStream in = Files.newInputStream(source.file);
+             OutputStream target = segment != null ? Files.newOutputStream(segment) : memory;
+             DeflaterOutputStream deflated = new DeflaterOutputStream(target, deflater, 64 * 1024)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                if (abandoned) throw new IOException("archive abandoned");
+                crc.update(buffer, 0, read);
+                deflated.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            if (segment != null) Files.deleteIfExists(segment);
+            throw e;
+        } finally {
+            deflater.end();
+        }
+        long compressedSize = segment != null ? Files.size(segment) : memory.size();
+        return new Compressed(name, 8, crc.getValue(), size, compressedSize, dosTime,
+                segment != null ? null : memory.toByteArray(), segment, segment != null);
+    }
+
+    // Appends "length" bytes of "file" from "position" on
+    private static void copyRange(Path file, long position, long length, OutputStream out) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            long end = position + length;
+            while (position < end) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+                int read = channel.read(buffer, position);
+                if (read < 0) throw new IOException("archive ended while copying a duplicate");
+                out.write(buffer.array(), 0, read);
+                position += read;
+            }
+        }
+    }
+
+    private static void writeLocalHeader(OutputStream zip, Compressed entry) throws IOException {
+        writeInt(zip, 0x04034b50);
+        writeShort(zip, 20);
+        writeShort(zip, 0x0800);
+        writeShort(zip, entry.method);
+        writeInt(zip, entry.dosTime);
+        writeInt(zip, entry.crc);
+        writeInt(zip, entry.compressedSize);
+        writeInt(zip, entry.size);
+        writeShort(zip, entry.name.length);
+        writeShort(zip, 0);
+        zip.write(entry.name);
+    }
+
+    private static void writeCentralDirectory(CountingOutputStream zip, List<Compressed> entries) throws IOException {
+        long start = zip.count;
+        for (Compressed entry : entries) {
+            writeInt(zip, 0x02014b50);
+            writeShort(zip, 20);
+            writeShort(zip, 20);
+            writeShort(zip, 0x0800);
+            writeShort(zip, entry.method);
+            writeInt(zip, entry.dosTime);
+            writeInt(zip, entry.crc);
+            writeInt(zip, entry.compressedSize);
+            writeInt(zip, entry.size);
+            writeShort(zip, entry.name.length);
+            writeShort(zip, 0);
+            writeShort(zip, 0);
+            writeShort(zip, 0);
+            writeShort(zip, 0);
+            writeInt(zip, 0);
+            writeInt(zip, entry.offset);
+            zip.write(entry.name);
+        }
+        long size = zip.count - start;
+        if (start > ZIP32_LIMIT)
+            throw new IOException("archive is larger than 4 GiB, use zip without -p or -s");
+        writeInt(zip, 0x06054b50);
+        writeShort(zip, 0);
+        writeShort(zip, 0);
+        writeShort(zip, entries.size());
+        writeShort(zip, entries.size());
+        writeInt(zip, size);
+        writeInt(zip, start);
+        writeShort(zip, 0);
+    }
+
+    // MS-DOS date and time as stored in zip headers (2 second resolution, years from 1980)
+    private static int dosTime(FileTime time) {
+        LocalDateTime t = LocalDateTime.ofInstant(time.toInstant(), ZoneId.systemDefault());
+        if (t.getYear() < 1980) t = LocalDateTime.of(1980, 1, 1, 0, 0);
+        int date = ((t.getYear() - 1980) << 9) | (t.getMonthValue() << 5) | t.getDayOfMonth();
+        int clock = (t.getHour() << 11) | (t.getMinute() << 5) | (t.getSecond() >> 1);
+        return (date << 16) | clock;
+    }
+
+    private static void writeShort(OutputStream out, int value) throws IOException {
+        out.write(value & 0xFF);
+        out.write((value >>> 8) & 0xFF);
+    }
+
+    private static void writeInt(OutputStream out, long value) throws IOException {
+        writeShort(out, (int) (value & 0xFFFF));
+        writeShort(out, (int) ((value >>> 16) & 0xFFFF));
+    }
+
+    // Drops a result that will never be written, removing its temp segment; the task has finished
+    private static void discard(Future<Compressed> future) {
+        if (future.state() != Future.State.SUCCESS) return;
+        Compressed entry = future.resultNow();
+        try {
+            if (entry != null && entry.temporary) Files.deleteIfExists(entry.dataFile);
+        } catch (IOException ignored) {
+        }
+    }
+
+    // Shuts the pool down and waits for its workers even when the calling thread is interrupted
+    private static void awaitWorkers(ExecutorService pool) {
+        pool.shutdown();
+        boolean interrupted = false;
+        while (!pool.isTerminated()) {
+            try {
+                pool.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    // Tracks the archive offset so local header positions can go into the central directory
+    private static class CountingOutputStream extends OutputStream {
+        private final OutputStream out;
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,16 @@
+/**
+ * A command line split into its command name and arguments. Instances are shared through
+ * the {@link Parser} cache, so the argument array must be treated as read-only.
+ */
+public class ParsedCommand {
+	final String commandName;
+	final String[] args;
+	// operators[i] is true when args[i] is an unquoted |, > or >>, not a quoted look-alike
+	final boolean[] operators;
+
+	ParsedCommand(String commandName, String[] args, boolean[] operators) {
+		this.commandName = commandName;
+		this.args = args;
+		this.operators = operators;
+	}
+}
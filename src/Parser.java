@@ -1,27 +1,111 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 public class Parser {
 	
+	// Scripts repeat the same command lines over and over, so parsed lines are kept in a
+	// small LRU cache shared by every Parser
+	static final int CACHE_SIZE = 512;
+	private static final Map<String, ParsedCommand> cache = Collections.synchronizedMap(
+			new LinkedHashMap<String, ParsedCommand>(CACHE_SIZE, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, ParsedCommand> eldest) {
+					return size() > CACHE_SIZE;
+				}
+			});
+
     String commandName;
     String[] args;
+    boolean[] operators;
     
     public Parser() {
     	commandName = "";
     	args = new String[0];
+    	operators = new boolean[0];
     }
     
     //This method will divide the input into commandName and args
-    //where "input" is the string command entered by the user
+    //where "input" is the string command entered by the user.
+    //Returns false when the input cannot be parsed (an unterminated quote)
     public boolean parse(String input) {
-    	boolean isParsed = false;
-    	String[] tokens = input.trim().split("\\s+");
-		args = new String[tokens.length - 1];
-		
-		commandName = tokens[0];
-		for(int i = 1 ; i < tokens.length ; i++) {
-			args[i - 1] = tokens[i];
-		}
+    	ParsedCommand parsed = cache.get(input);
+    	if (parsed == null) {
+    		parsed = tokenize(input);
+    		if (parsed == null) return false;
+    		cache.put(input, parsed);
+    	}
+    	commandName = parsed.commandName;
+    	args = parsed.args;
+    	operators = parsed.operators;
+    	return true;
+    }
+
+    //Single pass over the input:
+    // - whitespace separates arguments, "double" and 'single' quotes keep spaces in one argument
+    // - outside quotes a backslash escapes a following quote, space, |, > or &; any other
+    //   backslash is kept as is so Windows paths like C:\Users still work;
+    //   inside double quotes only \" is an escape
+    // - |, >, >> and & are separate tokens even without spaces around them
+    static ParsedCommand tokenize(String input) {
+    	List<String> tokens = new ArrayList<>();
+    	List<Integer> operatorTokens = new ArrayList<>();
+    	StringBuilder current = new StringBuilder();
+    	boolean inToken = false;
+    	int length = input.length();
+    	for (int i = 0; i < length; i++) {
+    		char c = input.charAt(i);
+    		if (c == '"' || c == '\'') {
+    			int end = i + 1;
+    			while (end < length && input.charAt(end) != c) {
+    				if (c == '"' && input.charAt(end) == '\\' && end + 1 < length && input.charAt(end + 1) == '"') {
+    					current.append('"');
+    					end += 2;
+    					continue;
+    				}
+    				current.append(input.charAt(end++));
+    			}
+    			if (end == length) return null;
+    			inToken = true;
+    			i = end;
+    		} else if (c == '\\' && i + 1 < length && isEscapable(input.charAt(i + 1))) {
+    			current.append(input.charAt(++i));
+    			inToken = true;
+    		} else if (Character.isWhitespace(c)) {
+    			if (inToken) tokens.add(current.toString());
+    			current.setLength(0);
+    			inToken = false;
+    		} else if (c == '|' || c == '>' || c == '&') {
+    			if (inToken) tokens.add(current.toString());
+    			current.setLength(0);
+    			inToken = false;
+    			operatorTokens.add(tokens.size());
+    			if (c == '>' && i + 1 < length && input.charAt(i + 1) == '>') {
+    				tokens.add(">>");
+    				i++;
+    			} else {
+    				tokens.add(String.valueOf(c));
+    			}
+    		} else {
+    			current.append(c);
+    			inToken = true;
+    		}
+    	}
+    	if (inToken) tokens.add(current.toString());
 
-		isParsed = true;
-    	return isParsed;
+    	if (tokens.isEmpty()) return new ParsedCommand("", new String[0], new boolean[0]);
+    	String[] args = tokens.subList(1, tokens.size()).toArray(new String[0]);
+    	boolean[] operators = new boolean[args.length];
+    	for (int index : operatorTokens) {
+    		if (index > 0) operators[index - 1] = true;
+    	}
+    	return new ParsedCommand(tokens.get(0), args, operators);
+    }
+
+    private static boolean isEscapable(char c) {
+    	return c == '"' || c == '\'' || c == ' ' || c == '|' || c == '>' || c == '&';
     }
 
     public String getCommandName(){
@@ -32,4 +116,8 @@ public class Parser {
 		return args;
     	
     }
+    //True when args[index] was written as an operator rather than a quoted or escaped string
+    public boolean isOperator(int index){
+		return index < operators.length && operators[index];
+    }
 }
@@ -0,0 +1,172 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The {@code Pipeline} class runs commands joined with {@code |}, e.g. {@code cat big.log | wc}.
+ * Every stage gets its own {@link Terminal} and runs on its own virtual thread. Neighbouring
+ * stages are connected by a bounded pipe, so a fast producer blocks until the consumer catches
+ * up instead of the whole output being held in memory.
+ *
+ * A stage that exits early, like {@code head}, closes its end of the pipe. The stage before it
+ * then fails to write, which its {@link PrintStream} only records; the progress the stage's
+ * commands check is a {@link StageProgress} that looks at that record, so they stop as if
+ * cancelled instead of producing the rest of their output for nobody.
+ */
+public class Pipeline {
+
+    // Bytes that may sit between two stages before the producer has to wait
+    static final int PIPE_BUFFER_SIZE = 64 * 1024;
+
+    private Pipeline() {
+    }
+
+    public static boolean isPipeline(Parser parser) {
+        String[] args = parser.getArgs();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("|") && parser.isOperator(i)) return true;
+        }
+        return false;
+    }
+
+    // Runs the parsed command line as a pipeline and returns once every stage has finished
+    public static void run(Terminal terminal, Parser parser) throws IOException, InterruptedException {
+        // The command name is token 0 and args[i] is token i + 1; each stage is a token range
+        String[] tokens = new String[parser.getArgs().length + 1];
+        tokens[0] = parser.getCommandName();
+        System.arraycopy(parser.getArgs(), 0, tokens, 1, parser.getArgs().length);
+        List<int[]> stages = split(parser);
+        for (int[] range : stages) {
+            if (range[0] == range[1]) {
+                terminal.out.println("Error: missing command in pipeline");
+                return;
+            }
+        }
+
+        Thread[] threads = new Thread[stages.size()];
+        InputStream in = terminal.in;
+        for (int i = 0; i < stages.size(); i++) {
+            boolean last = i == stages.size() - 1;
+            PipedInputStream next = last ? null : new PipedInputStream(PIPE_BUFFER_SIZE);
+            PrintStream out = last ? terminal.out : new PrintStream(new PipedOutputStream(next));
+
+            int from = stages.get(i)[0], to = stages.get(i)[1];
+            Terminal stage = new Terminal(in, out);
+            stage.cwd = terminal.cwd;
+            stage.progress = terminal.progress;
+            stage.pipe = last ? null : out;
+            stage.jobs = terminal.jobs();
+            stage.parser.commandName = tokens[from];
+            stage.parser.args = Arrays.copyOfRange(tokens, from + 1, to);
+            stage.parser.operators = Arrays.copyOfRange(parser.operators, from, to - 1);
+
+            InputStream stageIn = in;
+            boolean ownsInput = i > 0;
+            threads[i] = Thread.ofVirtual().name("pipe-" + i + "-" + tokens[from]).start(() -> {
+                try {
+                    stage.chooseCommandAction();
+                } finally {
+                    // Closing the write end signals end-of-input downstream; closing the read
+                    // end makes an upstream stage that is still writing fail fast
+                    if (!last) out.close();
+                    if (ownsInput) closeQuietly(stageIn);
+                }
+            });
+            in = next;
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            // An interrupted pipeline takes its stages down with it
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+            throw e;
+        }
+        terminal.out.flush();
+    }
+
+    // Token ranges [from, to) of the stages between the unquoted | operators
+    private static List<int[]> split(Parser parser) {
+        String[] args = parser.getArgs();
+        List<int[]> stages = new ArrayList<>();
+        int from = 0;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("|") && parser.isOperator(i)) {
+                stages.add(new int[] { from, i + 1 });
+                from = i + 2;
+            }
+        }
+        stages.add(new int[] { from, args.length + 1 });
+        return stages;
+    }
+
+    /**
+     * The progress of one stage: counts and cancellation go to the progress of the whole
+     * pipeline, and the stage also counts as cancelled once writing to the next stage has failed.
+     * A closed pipe is not a kill, so it leaves {@link #stoppedEarly()} of the pipeline alone.
+     */
+    static class StageProgress extends Progress {
+        private final Progress pipeline;
+        private final PrintStream pipe;
+
+        StageProgress(Progress pipeline, PrintStream pipe) {
+            this.pipeline = pipeline;
+            this.pipe = pipe;
+        }
+
+        @Override
+        public void file(long size) {
+            pipeline.file(size);
+        }
+
+        @Override
+        public void bytes(long count) {
+            pipeline.bytes(count);
+        }
+
+        @Override
+        public long files() {
+            return pipeline.files();
+        }
+
+        @Override
+        public long bytes() {
+            return pipeline.bytes();
+        }
+
+        @Override
+        public void cancel() {
+            pipeline.cancel();
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return pipeline.isCancelled() || pipe.checkError();
+        }
+
+        @Override
+        public boolean stoppedEarly() {
+            return pipeline.stoppedEarly();
+        }
+    }
+
+    private static void closeQuietly(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException ignored) {
+        }
+        // A writer blocked on a full pipe waits on the read end and only rechecks it every
+        // second; wake it so it sees the pipe closed now
+        synchronized (in) {
+            in.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@code Progress} class is shared between a running command and whoever watches it. The
+ * engines behind long operations ({@link TreeCopier}, {@link TreeDeleter}, {@link ParallelZip},
+ * {@link ParallelUnzip}) count every file they finish and the bytes it held; other commands add
+ * the bytes they read. A background job shows these counters in {@code jobs}.
+ *
+ * Cancellation is cooperative: {@link #cancel()} only sets a flag, which the engines check
+ * before each file or block, so they stop taking new work and finish or clean up what is in
+ * progress. Commands that never check it run to the end. A check that finds the flag set is
+ * taken as the command stopping early, which is what {@link #stoppedEarly()} reports.
+ */
+public class Progress {
+
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private volatile boolean cancelled;
+    private volatile boolean stopped;
+
+    // One more file done, holding "size" bytes
+    public void file(long size) {
+        files.incrementAndGet();
+        bytes.addAndGet(size);
+    }
+
+    public void bytes(long count) {
+        bytes.addAndGet(count);
+    }
+
+    public long files() {
+        return files.get();
+    }
+
+    public long bytes() {
+        return bytes.get();
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    // Asked before each piece of work that is left; true means the caller skips it and stops
+    public boolean isCancelled() {
+        if (cancelled) stopped = true;
+        return cancelled;
+    }
+
+    // True when the command left work undone because it was cancelled
+    public boolean stoppedEarly() {
+        return stopped;
+    }
+}
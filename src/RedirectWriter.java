@@ -0,0 +1,295 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@code RedirectWriter} class performs every {@code >} and {@code >>} redirection. Writes
+ * are queued and applied in order by one background thread, which keeps the target files open
+ * in a small LRU cache of channels, so a script that appends to the same log thousands of times
+ * opens it once instead of on every command.
+ *
+ * Durability is chosen with the {@code cli.durability} system property:
+ * <ul>
+ *   <li>{@code none} - data reaches the OS, nothing is forced to disk</li>
+ *   <li>{@code exit} (default) - all open files are forced to disk when the interpreter exits</li>
+ *   <li>{@code fsync} or {@code fsync:N} - a file is forced after every N writes to it, and at exit</li>
+ * </ul>
+ *
+ * Queued writes may hold at most {@value #MAX_QUEUED_BYTES} bytes; a producer faster than the
+ * disk waits for the writer instead of growing the heap.
+ *
+ * Commands that read files call {@link #sync()} first so they see every queued write, and
+ * commands that delete or replace files call {@link #release()} so no stale handle is kept.
+ */
+public class RedirectWriter {
+
+    enum Durability { NONE, EXIT, FSYNC }
+
+    static final int MAX_OPEN_FILES = 16;
+    // Bytes of queued writes a producer may be ahead of the disk before it has to wait
+    static final int MAX_QUEUED_BYTES = 16 * 1024 * 1024;
+
+    // Work done with the open channel of a redirect target, on the writer thread
+    interface ChannelTask {
+        void run(FileChannel channel) throws IOException;
+    }
+
+    private static class Holder {
+        static final RedirectWriter SHARED = new RedirectWriter(System.getProperty("cli.durability", "exit"));
+    }
+
+    // The writer shared by every terminal in this process
+    public static RedirectWriter shared() {
+        return Holder.SHARED;
+    }
+
+    // One queued operation; "file" is null for a sync marker and a release request
+    private static class Operation {
+        final Path file;
+        final boolean truncate;
+        final byte[] data;
+        final ChannelTask task;
+        final PrintStream errors;
+        final String operand;
+        final boolean release;
+        final CountDownLatch done;
+        IOException failure;
+
+        Operation(Path file, boolean truncate, byte[] data, ChannelTask task, PrintStream errors, boolean release, CountDownLatch done) {
+            this.file = file;
+            this.truncate = truncate;
+            this.data = data;
+            this.task = task;
+            this.errors = errors;
+            this.operand = truncate ? ">" : ">>";
+            this.release = release;
+            this.done = done;
+        }
+    }
+
+    private final Durability durability;
+    private final int fsyncEvery;
+    private final BlockingQueue<Operation> queue = new LinkedBlockingQueue<>();
+    private final AtomicLong pending = new AtomicLong();
+    // Byte budget of the queued writes, taken by the producers and given back once written
+    private final Semaphore queuedBytes = new Semaphore(MAX_QUEUED_BYTES);
+    // Only touched by the writer thread (and by the shutdown hook once that thread is idle)
+    private final Map<Path, FileChannel> handles = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Path, Integer> unsynced = new HashMap<>();
+    // Number of cached handles, readable from any thread
+    private volatile int open;
+
+    private RedirectWriter(String policy) {
+        if (policy.equals("none")) {
+            durability = Durability.NONE;
+            fsyncEvery = 0;
+        } else if (policy.startsWith("fsync")) {
+            durability = Durability.FSYNC;
+            fsyncEvery = policy.startsWith("fsync:") ? Math.max(1, Integer.parseInt(policy.substring(6))) : 1;
+        } else {
+            durability = Durability.EXIT;
+            fsyncEvery = 0;
+        }
+        Thread thread = new Thread(this::run, "redirect-writer");
+        thread.setDaemon(true);
+        thread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "redirect-writer-shutdown"));
+    }
+
+    // Queues "data" for the file; errors are reported on "errors" once the write happens. Waits
+    // first while the writes already queued hold the whole byte budget.
+    public void write(Path file, byte[] data, boolean append, PrintStream errors) {
+        queuedBytes.acquireUninterruptibly(reserved(data));
+        enqueue(new Operation(file.toAbsolutePath().normalize(), !append, data, null, errors, false, null));
+    }
+
+    // Runs "task" with the open channel of the file, positioned at its end, and waits for it
+    public void transfer(Path file, boolean append, ChannelTask task) throws IOException {
+        Operation operation = new Operation(file.toAbsolutePath().normalize(), !append, null, task, null, false, new CountDownLatch(1));
+        enqueue(operation);
+        await(operation);
+        if (operation.failure != null) throw operation.failure;
+    }
+
+    // A stream into the file for commands that produce their output bit by bit
+    public OutputStream stream(Path file, boolean append, PrintStream errors) {
+        return new OutputStream() {
+            private final byte[] buffer = new byte[64 * 1024];
+            private int count;
+            private boolean truncate = !append;
+
+            @Override
+            public void write(int b) {
+                if (count == buffer.length) flush();
+                buffer[count++] = (byte) b;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                if (len > buffer.length - count) flush();
+                if (len > buffer.length) {
+                    send(Arrays.copyOfRange(b, off, off + len));
+                    return;
+                }
+                System.arraycopy(b, off, buffer, count, len);
+                count += len;
+            }
+
+            @Override
+            public void flush() {
+                if (count == 0 && !truncate) return;
+                send(Arrays.copyOf(buffer, count));
+                count = 0;
+            }
+
+            private void send(byte[] data) {
+                // Only the first chunk truncates; the rest is appended after it
+                RedirectWriter.this.write(file, data, !truncate, errors);
+                truncate = false;
+            }
+
+            @Override
+            public void close() {
+                flush();
+            }
+        };
+    }
+
+    // Waits until every write queued so far has been applied
+    public void sync() {
+        if (pending.get() == 0) return;
+        Operation marker = new Operation(null, false, null, null, null, false, new CountDownLatch(1));
+        enqueue(marker);
+        await(marker);
+    }
+
+    // Like sync, and also closes every cached handle, so files can be deleted or replaced safely
+    public void release() {
+        if (pending.get() == 0 && open == 0) return;
+        Operation marker = new Operation(null, false, null, null, null, true, new CountDownLatch(1));
+        enqueue(marker);
+        await(marker);
+    }
+
+    private void enqueue(Operation operation) {
+        pending.incrementAndGet();
+        queue.add(operation);
+    }
+
+    // A write larger than the whole budget takes all of it, so it still gets through on its own
+    private static int reserved(byte[] data) {
+        return Math.min(data.length, MAX_QUEUED_BYTES);
+    }
+
+    private static void await(Operation operation) {
+        try {
+            operation.done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<Operation> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, 1024);
+            for (Operation operation : batch) {
+                apply(operation);
+                if (operation.data != null) queuedBytes.release(reserved(operation.data));
+                pending.decrementAndGet();
+                if (operation.done != null) operation.done.countDown();
+            }
+            batch.clear();
+        }
+    }
+
+    private void apply(Operation operation) {
+        if (operation.file == null) {
+            if (operation.release) closeAll();
+            return;
+        }
+        try {
+            FileChannel channel = handle(operation.file);
+            if (operation.truncate) channel.truncate(0);
+            if (operation.task != null) {
+                channel.position(channel.size());
+                operation.task.run(channel);
+            } else {
+                ByteBuffer buffer = ByteBuffer.wrap(operation.data);
+                long position = channel.size();
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+            }
+            if (durability == Durability.FSYNC && unsynced.merge(operation.file, 1, Integer::sum) >= fsyncEvery) {
+                channel.force(false);
+                unsynced.remove(operation.file);
+            }
+        } catch (IOException e) {
+            closeQuietly(operation.file);
+            if (operation.task != null)
+                operation.failure = e;
+            else if (operation.errors != null)
+                operation.errors.println("Error writing to file (" + operation.operand + "): " + e.getMessage());
+        }
+    }
+
+    private FileChannel handle(Path file) throws IOException {
+        FileChannel channel = handles.get(file);
+        if (channel != null && channel.isOpen()) return channel;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        handles.put(file, channel);
+        open = handles.size();
+        if (handles.size() > MAX_OPEN_FILES) {
+            Iterator<Map.Entry<Path, FileChannel>> eldest = handles.entrySet().iterator();
+            Path evicted = eldest.next().getKey();
+            closeQuietly(evicted);
+        }
+        return channel;
+    }
+
+    private void closeAll() {
+        for (Path file : new ArrayList<>(handles.keySet())) {
+            closeQuietly(file);
+        }
+    }
+
+    // Forces the file first unless durability is "none", then closes it
+    private void closeQuietly(Path file) {
+        FileChannel channel = handles.remove(file);
+        unsynced.remove(file);
+        open = handles.size();
+        if (channel == null) return;
+        try {
+            if (durability != Durability.NONE && channel.isOpen()) channel.force(false);
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    // Exit: apply whatever is still queued, then force and close all files
+    private void shutdown() {
+        release();
+    }
+}
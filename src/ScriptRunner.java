@@ -0,0 +1,110 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The {@code ScriptRunner} class is the non-interactive mode of the interpreter
+ * ({@code java Main -f script.txt}, or {@code -f -} for stdin). Commands are read in
+ * batches and run one after another, and all of their output goes through one buffered
+ * sink that is written out when it fills up and once more at the end instead of on
+ * every line. When the script is done, and its background jobs have finished, a
+ * per-command timing table and the overall throughput are printed to stderr.
+ */
+public class ScriptRunner {
+
+    static final int BATCH_SIZE = 1024;
+    static final int FLUSH_THRESHOLD = 256 * 1024;
+    // Summary row of the lines that could not be parsed
+    static final String INVALID = "(invalid)";
+
+    // count, total and slowest run time of one command name
+    private static class Timing {
+        long count;
+        long totalNanos;
+        long maxNanos;
+    }
+
+    private final Map<String, Timing> timings = new TreeMap<>();
+
+    public static void run(String source) throws IOException {
+        BufferedReader reader = source.equals("-")
+                ? new BufferedReader(new InputStreamReader(System.in))
+                : Files.newBufferedReader(Paths.get(source));
+        PrintStream sink = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), FLUSH_THRESHOLD), false);
+        try (reader) {
+            new ScriptRunner().execute(reader, sink, System.err);
+        } finally {
+            sink.flush();
+        }
+    }
+
+    public void execute(BufferedReader reader, PrintStream sink, PrintStream report) throws IOException {
+        Terminal terminal = new Terminal(null, sink);
+        List<String> batch = new ArrayList<>(BATCH_SIZE);
+        long started = System.nanoTime();
+        long commands = 0;
+        boolean exit = false;
+
+        while (!exit) {
+            batch.clear();
+            String line;
+            while (batch.size() < BATCH_SIZE && (line = reader.readLine()) != null) {
+                batch.add(line);
+            }
+            if (batch.isEmpty()) break;
+
+            for (String text : batch) {
+                if (text.isBlank()) continue;
+                if (text.trim().equalsIgnoreCase("exit")) {
+                    exit = true;
+                    break;
+                }
+                long start = System.nanoTime();
+                // A line that does not parse leaves the parser on the previous command
+                String command = INVALID;
+                if (terminal.parser.parse(text)) {
+                    command = terminal.parser.getCommandName();
+                    terminal.chooseCommandAction();
+                } else {
+                    sink.println("Invalid command.");
+                }
+                record(command, System.nanoTime() - start);
+                commands++;
+            }
+        }
+        // A script runs to completion, background jobs included
+        terminal.endJobs(false);
+        sink.flush();
+        printSummary(report, commands, System.nanoTime() - started);
+    }
+
+    private void record(String command, long nanos) {
+        Timing timing = timings.computeIfAbsent(command, name -> new Timing());
+        timing.count++;
+        timing.totalNanos += nanos;
+        timing.maxNanos = Math.max(timing.maxNanos, nanos);
+    }
+
+    private void printSummary(PrintStream report, long commands, long elapsedNanos) {
+        report.println("--- script summary ---");
+        report.printf("%-10s %10s %12s %10s %10s%n", "command", "count", "total ms", "avg us", "max us");
+        for (Map.Entry<String, Timing> e : timings.entrySet()) {
+            Timing t = e.getValue();
+            report.printf("%-10s %10d %12.1f %10.1f %10.1f%n", e.getKey(), t.count,
+                    t.totalNanos / 1e6, t.totalNanos / 1e3 / t.count, t.maxNanos / 1e3);
+        }
+        double seconds = elapsedNanos / 1e9;
+        report.printf("%d commands in %.1f ms (%.0f commands/s)%n", commands, elapsedNanos / 1e6,
+                seconds > 0 ? commands / seconds : 0.0);
+    }
+}
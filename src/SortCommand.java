@@ -0,0 +1,125 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@code sort [-n] [-r] [-u] [-k N[,M]] [-t sep] [-S size] [-T dir] [-pN] [file...]} prints the
+ * lines of the files, or of the piped input, in order. {@code -k} sorts by fields N to M (split
+ * at {@code -t} or at blanks, leading blanks skipped), {@code -n} by the number the key starts
+ * with, {@code -r} in reverse and {@code -u} prints only the first of lines with equal keys.
+ *
+ * The sorting is done by {@link ExternalSort} within a memory budget: {@code -S} (e.g.
+ * {@code 256m}), else the {@code cli.sort.memory} system property, else a quarter of the maximum
+ * heap. Input beyond the budget is spilled to sorted runs in {@code -T} (the system temporary
+ * directory by default), which are sorted on N threads (all cores by default).
+ */
+public class SortCommand implements Command {
+
+    private static final String USAGE = "Usage: sort [-n] [-r] [-u] [-k N[,M]] [-t sep] [-S size] [-T dir] [-pN] [file...]";
+
+    @Override
+    public String name() {
+        return "sort";
+    }
+
+    @Override
+    public void run(CommandContext context) throws IOException {
+        PrintStream out = context.out();
+        String[] args = context.args();
+        boolean numeric = false, reverse = false, unique = false;
+        int field = 0, endField = 0;
+        String separator = null;
+        long budget;
+        Path tempRoot = Paths.get(System.getProperty("java.io.tmpdir"));
+        int threads = Runtime.getRuntime().availableProcessors();
+        int first = 0;
+        try {
+            String memory = System.getProperty("cli.sort.memory");
+            budget = memory != null ? parseSize(memory) : Runtime.getRuntime().maxMemory() / 4;
+            for (; first < args.length && args[first].startsWith("-") && args[first].length() > 1; first++) {
+                String flag = args[first];
+                if (flag.matches("-[nru]+")) {
+                    numeric |= flag.indexOf('n') > 0;
+                    reverse |= flag.indexOf('r') > 0;
+                    unique |= flag.indexOf('u') > 0;
+                } else if (flag.startsWith("-p") && flag.length() > 2) {
+                    threads = Integer.parseInt(flag.substring(2));
+                } else if (flag.matches("-[ktST].*")) {
+                    if (flag.length() == 2 && first + 1 == args.length) throw new IllegalArgumentException("missing value for " + flag);
+                    String value = flag.length() > 2 ? flag.substring(2) : args[++first];
+                    switch (flag.charAt(1)) {
+                        case 'k':
+                            String[] fields = value.split(",", 2);
+                            field = Integer.parseInt(fields[0]);
+                            endField = fields.length > 1 ? Integer.parseInt(fields[1]) : 0;
+                            if (field < 1 || endField < 0) throw new IllegalArgumentException("invalid key " + value);
+                            break;
+                        case 't': separator = value; break;
+                        case 'S': budget = parseSize(value); break;
+                        default: tempRoot = context.resolve(value); break;
+                    }
+                } else {
+                    throw new IllegalArgumentException("unknown option " + flag);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            out.println("Error in sort: " + e.getMessage());
+            out.println(USAGE);
+            return;
+        }
+        if (first == args.length && context.in() == null) {
+            out.println(USAGE);
+            return;
+        }
+        if (separator != null && separator.isEmpty()) {
+            out.println("Error in sort: empty separator");
+            return;
+        }
+
+        List<Path> files = new ArrayList<>();
+        for (int i = first; i < args.length; i++) {
+            List<Path> matches = context.terminal().expand(args[i]);
+            if (matches.isEmpty() || Files.notExists(matches.get(0))) {
+                out.println("File not found: " + args[i]);
+                return;
+            }
+            files.addAll(matches);
+        }
+
+        context.terminal().printingData();
+        try (ExternalSort sort = new ExternalSort(ExternalSort.keyOrder(field, endField, separator, numeric),
+                reverse, unique, budget, threads, tempRoot)) {
+            Progress progress = context.terminal().progress();
+            sort.setProgress(progress);
+            if (files.isEmpty()) {
+                sort.add(new BufferedReader(new InputStreamReader(context.in(), StandardCharsets.UTF_8)));
+            }
+            for (Path file : files) {
+                if (progress.isCancelled()) return;
+                // A reader on the stream replaces malformed bytes instead of failing like Files.newBufferedReader
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8))) {
+                    sort.add(reader);
+                }
+                context.terminal().countRead(Files.size(file));
+            }
+            sort.finish(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024));
+        }
+    }
+
+    // "4096", "64k", "256m" or "2g" in bytes
+    static long parseSize(String text) {
+        char unit = Character.toLowerCase(text.charAt(text.length() - 1));
+        long multiplier = unit == 'k' ? 1024 : unit == 'm' ? 1024 * 1024 : unit == 'g' ? 1024L * 1024 * 1024 : 1;
+        String digits = multiplier == 1 ? text : text.substring(0, text.length() - 1);
+        return Long.parseLong(digits) * multiplier;
+    }
+}
@@ -0,0 +1,44 @@
+import java.io.PrintStream;
+
+/**
+ * {@code stats [--json | on | off | reset]} prints the per-command counts, latencies, bytes
+ * read and written and errors recorded by {@link CommandMetrics}, or switches recording.
+ */
+public class StatsCommand implements Command {
+
+    @Override
+    public String name() {
+        return "stats";
+    }
+
+    @Override
+    public FileAccess fileAccess() {
+        return FileAccess.NONE;
+    }
+
+    // Looking at the metrics does not count as a command run
+    @Override
+    public boolean recordsMetrics() {
+        return false;
+    }
+
+    @Override
+    public void run(CommandContext context) {
+        PrintStream out = context.out();
+        String[] args = context.args();
+        CommandMetrics metrics = CommandMetrics.shared();
+        switch (args.length == 0 ? "" : args[0]) {
+            case "on": metrics.setEnabled(true); out.println("Metrics on"); break;
+            case "off": metrics.setEnabled(false); out.println("Metrics off"); break;
+            case "reset": metrics.reset(); out.println("Metrics reset"); break;
+            case "--json": out.println(metrics.getJson()); break;
+            case "":
+                out.println(metrics.table());
+                if (!metrics.isEnabled())
+                    out.println("(metrics are off: run 'stats on' or start with -Dcli.metrics=true)");
+                break;
+            default:
+                out.println("Usage: stats [--json | on | off | reset]");
+        }
+    }
+}
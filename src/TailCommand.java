@@ -0,0 +1,220 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code tail [-n N | -N] [-f] [file...]} prints the last N lines (10 by default) of each file,
+ * or of the piped input without file arguments. Files are read backwards from the end in blocks
+ * with positional reads until N line breaks have been seen, so the cost depends on N and not on
+ * the size of the file.
+ *
+ * With {@code -f} tail keeps following one file and prints what is appended to it. A
+ * {@link WatchService} on the file's directory wakes it up when the file changes, and the size
+ * is checked every {@value #POLL_MILLIS} ms as well for file systems that do not report changes.
+ * A file that shrinks (truncated or rotated) is printed again from the start. Following ends
+ * when the file is deleted, the output can no longer be written (a closed pipe or a server client
+ * that disconnected), the thread running the command is interrupted or its background job is
+ * killed. A foreground {@code tail -f} in the interactive terminal cannot be stopped otherwise,
+ * so run it as a job ({@code tail -f log &}) to keep the prompt.
+ */
+public class TailCommand implements Command {
+
+    static final int BLOCK_SIZE = 64 * 1024;
+    static final long POLL_MILLIS = 500;
+
+    @Override
+    public String name() {
+        return "tail";
+    }
+
+    @Override
+    public void run(CommandContext context) throws IOException {
+        PrintStream out = context.out();
+        String[] args = context.args();
+        long lines = HeadCommand.DEFAULT_LINES;
+        boolean follow = false;
+        int first = 0;
+        try {
+            for (; first < args.length && args[first].startsWith("-") && args[first].length() > 1; first++) {
+                if (args[first].equals("-f"))
+                    follow = true;
+                else if (args[first].equals("-n") && first + 1 < args.length)
+                    lines = Long.parseLong(args[++first]);
+                else if (args[first].startsWith("-n"))
+                    lines = Long.parseLong(args[first].substring(2));
+                else
+                    lines = Long.parseLong(args[first].substring(1));
+            }
+        } catch (NumberFormatException e) {
+            out.println("Usage: tail [-n N | -N] [-f] [file...]");
+            return;
+        }
+        context.terminal().printingData();
+        if (first == args.length) {
+            if (context.in() == null || follow) {
+                out.println("Usage: tail [-n N | -N] [-f] [file...]");
+                return;
+            }
+            context.terminal().countRead(lastLines(context.in(), lines, out));
+            return;
+        }
+
+        List<Path> files = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        for (int i = first; i < args.length; i++) {
+            List<Path> matches = context.terminal().expand(args[i]);
+            if (matches.isEmpty() || Files.notExists(matches.get(0))) {
+                out.println("File not found: " + args[i]);
+                continue;
+            }
+            for (Path match : matches) {
+                files.add(match);
+                names.add(context.terminal().shownAs(args[i], match));
+            }
+        }
+        if (follow && files.size() > 1) {
+            out.println("Error in tail: -f follows a single file");
+            return;
+        }
+        long end = 0;
+        for (int i = 0; i < files.size(); i++) {
+            if (files.size() > 1) out.println((i > 0 ? "\n" : "") + "==> " + names.get(i) + " <==");
+            if (Files.isDirectory(files.get(i))) {
+                out.println("Error: " + names.get(i) + " is a directory");
+                continue;
+            }
+            try (FileChannel channel = FileChannel.open(files.get(i), StandardOpenOption.READ)) {
+                end = channel.size();
+                long start = lastLinesStart(channel, end, lines);
+                context.terminal().countRead(copy(channel, start, end, out));
+            }
+        }
+        out.flush();
+        if (follow && files.size() == 1) {
+            follow(context, files.get(0), names.get(0), end, out);
+        }
+    }
+
+    // Offset of the first of the last "lines" lines of the first "size" bytes; a line break at
+    // the very end closes the last line rather than starting an empty one
+    static long lastLinesStart(FileChannel channel, long size, long lines) throws IOException {
+        if (lines <= 0) return size;
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+        long found = 0;
+        long end = size;
+        while (end > 0) {
+            long start = Math.max(0, end - BLOCK_SIZE);
+            block.clear().limit((int) (end - start));
+            while (block.hasRemaining()) {
+                if (channel.read(block, start + block.position()) < 0) break;
+            }
+            for (int i = block.position() - 1; i >= 0; i--) {
+                if (block.get(i) == '\n' && start + i != size - 1 && ++found == lines) {
+                    return start + i + 1;
+                }
+            }
+            end = start;
+        }
+        return 0;
+    }
+
+    // Writes [start, end) of the file to "out" and returns the number of bytes copied
+    private static long copy(FileChannel channel, long start, long end, PrintStream out) throws IOException {
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+        long position = start;
+        while (position < end) {
+            block.clear().limit((int) Math.min(BLOCK_SIZE, end - position));
+            int read = channel.read(block, position);
+            if (read < 0) break;
+            out.write(block.array(), 0, read);
+            position += read;
+        }
+        return position - start;
+    }
+
+    // The last "lines" lines of a stream, which can only be read forwards: the stream is read to
+    // the end keeping just the lines that may still be among the last ones
+    private static long lastLines(InputStream in, long lines, PrintStream out) throws IOException {
+        Deque<byte[]> kept = new ArrayDeque<>();
+        byte[] buffer = new byte[BLOCK_SIZE];
+        byte[] partial = new byte[0];
+        long total = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            total += read;
+            int from = 0;
+            for (int i = 0; i < read; i++) {
+                if (buffer[i] != '\n') continue;
+                byte[] line = Arrays.copyOf(partial, partial.length + i + 1 - from);
+                System.arraycopy(buffer, from, line, partial.length, i + 1 - from);
+                partial = new byte[0];
+                from = i + 1;
+                kept.addLast(line);
+                if (kept.size() > lines) kept.removeFirst();
+            }
+            byte[] rest = Arrays.copyOf(partial, partial.length + read - from);
+            System.arraycopy(buffer, from, rest, partial.length, read - from);
+            partial = rest;
+        }
+        if (partial.length > 0) {
+            kept.addLast(partial);
+            if (kept.size() > lines) kept.removeFirst();
+        }
+        for (byte[] line : kept) {
+            out.write(line, 0, line.length);
+        }
+        out.flush();
+        return total;
+    }
+
+    // Prints what is appended to the file from "position" on until it is deleted or the thread is interrupted
+    private static void follow(CommandContext context, Path file, String name, long position, PrintStream out) throws IOException {
+        Path dir = file.toAbsolutePath().getParent();
+        try (WatchService watcher = file.getFileSystem().newWatchService()) {
+            dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+            Progress progress = context.terminal().progress();
+            while (!Thread.currentThread().isInterrupted() && !progress.isCancelled()) {
+                WatchKey key = watcher.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    key.pollEvents();
+                    key.reset();
+                }
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    long size = channel.size();
+                    if (size < position) {
+                        out.println("tail: " + name + ": file truncated");
+                        position = 0;
+                    }
+                    if (size > position) {
+                        context.terminal().countRead(copy(channel, position, size, out));
+                        position = size;
+                    }
+                } catch (NoSuchFileException e) {
+                    out.println("tail: " + name + " was removed");
+                    break;
+                }
+                // PrintStream swallows write errors: a closed pipe or a client that went away
+                // only shows up here, and nobody is reading anymore
+                if (out.checkError()) break;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
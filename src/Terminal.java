@@ -36,11 +36,17 @@
  */
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.*;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Stream;
 
 
 /**
@@ -49,42 +55,116 @@ import java.util.zip.ZipOutputStream;
  * execution, and file system interactions.
  */
 public class Terminal {
+    // Bytes cat moves with one transferTo call between two checks for cancellation
+    static final long TRANSFER_SLICE = 8L * 1024 * 1024;
+
     Parser parser;
+    // Commands print to "out"; inside a pipeline "in" carries the previous stage's output
+    PrintStream out;
+    InputStream in;
+    // Working directory of this terminal; relative paths in every command resolve against it
+    Path cwd;
+    // Counters of the running command while metrics are on, null otherwise
+    CommandMetrics.Invocation invocation;
+    // Progress and cancellation of the background job this terminal runs, null in the foreground
+    Progress progress;
+    // The pipe to the next stage when this terminal runs a pipeline stage, null otherwise
+    PrintStream pipe;
+    // Jobs started from this terminal with "&", created on first use; pipeline stages and jobs
+    // share the table of the terminal that started them
+    JobTable jobs;
 
 
     public Terminal() {
+        this(null, System.out);
+    }
+
+    public Terminal(InputStream in, PrintStream out) {
         parser = new Parser();
+        this.in = in;
+        this.out = out;
+        this.cwd = Paths.get(System.getProperty("user.dir"));
+    }
+
+    // Resolves a path argument against this terminal's working directory
+    Path resolve(String path) {
+        return cwd.resolve(path);
+    }
+
+    // I/O done by the running command besides printing to "out", for the metrics and job progress
+    void countRead(long bytes) {
+        if (invocation != null) invocation.bytesRead += bytes;
+        if (progress != null) progress.bytes(bytes);
+    }
+
+    void countWritten(long bytes) {
+        if (invocation != null) invocation.bytesWritten += bytes;
+    }
+
+    // The progress the running command reports to; a throwaway one in the foreground. A pipeline
+    // stage gets a view that also reports cancelled once the next stage has closed the pipe
+    Progress progress() {
+        Progress own = progress != null ? progress : new Progress();
+        return pipe != null ? new Pipeline.StageProgress(own, pipe) : own;
+    }
+
+    JobTable jobs() {
+        if (jobs == null) jobs = new JobTable();
+        return jobs;
+    }
+
+    // Called when the session ends: running jobs are cancelled, or awaited when "cancel" is
+    // false, so none of them is cut off halfway through writing a file
+    void endJobs(boolean cancel) {
+        if (jobs == null) return;
+        if (cancel) jobs.cancelAll();
+        try {
+            jobs.awaitAll(null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // What the running command prints from here on is file data, not messages
+    void printingData() {
+        if (invocation != null) invocation.data = true;
     }
 
     // ---------------------------
     // Redirection Functions
     // ---------------------------
 
-    // For ">" — overwrite file
+    // For ">" — overwrite file; the write is queued on the shared RedirectWriter
     public void writeToFileOverwrite(String output, String filename) {
-        try {
-            Files.write(Paths.get(filename), output.getBytes(),
-                        StandardOpenOption.CREATE,
-                        StandardOpenOption.TRUNCATE_EXISTING);
-        } catch (IOException e) {
-            System.out.println("Error writing to file (>): " + e.getMessage());
-        }
+        byte[] data = output.getBytes();
+        countWritten(data.length);
+        RedirectWriter.shared().write(resolve(filename), data, false, out);
+        DirectoryCache.shared().changed(resolve(filename));
     }
     
     // For ">>" — append to file
     public void writeToFileAppend(String output, String filename) {
-        try {
-            Files.write(Paths.get(filename), output.getBytes(),
-                        StandardOpenOption.CREATE,
-                        StandardOpenOption.APPEND);
-        } catch (IOException e) {
-            System.out.println("Error writing to file (>>): " + e.getMessage());
-        }
+        byte[] data = output.getBytes();
+        countWritten(data.length);
+        RedirectWriter.shared().write(resolve(filename), data, true, out);
+        DirectoryCache.shared().changed(resolve(filename));
     }
     
+    // Opens the target of > or >> as a stream, for commands that write their output as they go
+    PrintStream openRedirect(String operand, String filename) {
+        OutputStream file = RedirectWriter.shared().stream(resolve(filename), operand.equals(">>"), out);
+        return new PrintStream(invocation == null ? file : invocation.counting(file, false), false);
+    }
+
+    // True when the arguments end in "> file" or ">> file" written as an operator, not a quoted ">"
+    private boolean endsWithRedirect(String[] args) {
+        int n = args.length;
+        return n >= 2 && parser.isOperator(n - 2) && (args[n - 2].equals(">") || args[n - 2].equals(">>"));
+    }
+
     // Optional helper to detect and handle > or >>
     public boolean redirectOutput(String output, String[] args) {
-        if (args.length >= 2) {
+        if (endsWithRedirect(args)) {
             String operand = args[args.length - 2];
             String filename = args[args.length - 1];
 
@@ -107,7 +187,7 @@ public class Terminal {
 
             // If > or >> exist, get text before them only
             String output;
-            if (args.length >= 2 && (args[args.length - 2].equals(">") || args[args.length - 2].equals(">>"))) {
+            if (endsWithRedirect(args)) {
                 output = String.join(" ", Arrays.copyOf(args, args.length - 2));
                 String operand = args[args.length - 2];
                 String filename = args[args.length - 1];
@@ -119,18 +199,18 @@ public class Terminal {
                 }
             } else {
                 output = String.join(" ", args);
-                System.out.println(output);
+                out.println(output);
             }
         } catch (Exception e) {
-            System.out.println("Error in echo: " + e.getMessage());
+            out.println("Error in echo: " + e.getMessage());
         }
     }
 
     public String pwd() {
         try {
-            return System.getProperty("user.dir");
+            return cwd.toString();
         } catch (Exception e) {
-            System.out.println("Error getting current directory: " + e.getMessage());
+            out.println("Error getting current directory: " + e.getMessage());
             return "";
         }
     }
@@ -138,148 +218,115 @@ public class Terminal {
     public void cd(String[] args) {
         try {
             if (args.length == 0) {
-                System.setProperty("user.dir", System.getProperty("user.home"));
+                cwd = Paths.get(System.getProperty("user.home"));
             } else if (args.length == 1 && args[0].equals("..")) {
-                Path current = Paths.get(System.getProperty("user.dir"));
-                Path parent = current.getParent();
+                Path parent = cwd.getParent();
                 if (parent != null)
-                    System.setProperty("user.dir", parent.toString());
+                    cwd = parent;
             } else if (args.length == 1) {
-                Path newPath = Paths.get(args[0]);
-                if (!newPath.isAbsolute())
-                    newPath = Paths.get(System.getProperty("user.dir")).resolve(newPath);
-                if (Files.exists(newPath) && Files.isDirectory(newPath))
-                    System.setProperty("user.dir", newPath.normalize().toString());
+                Path newPath = resolve(args[0]);
+                if (DirectoryCache.shared().isDirectory(newPath))
+                    cwd = newPath.normalize();
                 else
-                    System.out.println("Error: invalid directory path");
+                    out.println("Error: invalid directory path");
             } else {
-                System.out.println("Error: too many arguments");
+                out.println("Error: too many arguments");
             }
-            System.out.println("Current directory: " + System.getProperty("user.dir"));
+            out.println("Current directory: " + cwd);
         } catch (Exception e) {
-            System.out.println("Error in cd: " + e.getMessage());
+            out.println("Error in cd: " + e.getMessage());
         }
     }
 
-    public void zip() {
+    public void rmdir() {
         try {
             String[] args = parser.getArgs();
-            if (args.length < 2) {
-                System.out.println("Error: zip requires files");
+            if (args.length >= 2 && args[0].equals("-r")) {
+                removeTrees(Arrays.copyOfRange(args, 1, args.length), Math.max(4, Runtime.getRuntime().availableProcessors()));
                 return;
             }
-            boolean recursive = args[0].equals("-r");
-            String zipName = recursive ? args[1] : args[0];
-            if (recursive) {
-                String dirName = args[2];
-                zipDirectory(Paths.get(dirName), Paths.get(zipName));
-            } else {
-                zipFiles(Arrays.copyOfRange(args, 1, args.length), zipName);
-            }
-        } catch (Exception e) {
-            System.out.println("Error in zip: " + e.getMessage());
-        }
-    }
-
-    private void zipFiles(String[] files, String zipName) {
-        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zipName))) {
-            for (String file : files) {
-                Path f = Paths.get(file);
-                if (!f.isAbsolute())
-                    f = Paths.get(System.getProperty("user.dir")).resolve(f);
-                zos.putNextEntry(new ZipEntry(f.getFileName().toString()));
-                Files.copy(f, zos);
-                zos.closeEntry();
-            }
-            System.out.println("Zip created: " + zipName);
-        } catch (Exception e) {
-            System.out.println("Error zipping files: " + e.getMessage());
-        }
-    }
-
-    private void zipDirectory(Path sourceDir, Path zipFile) {
-        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zipFile.toFile()))) {
-            Files.walk(sourceDir).forEach(path -> {
-                try {
-                    String entry = sourceDir.relativize(path).toString();
-                    if (Files.isDirectory(path)) return;
-                    zos.putNextEntry(new ZipEntry(entry));
-                    Files.copy(path, zos);
-                    zos.closeEntry();
-                } catch (Exception e) {
-                    System.out.println("Error processing file in zip: " + e.getMessage());
-                }
-            });
-            System.out.println("Directory zipped successfully.");
-        } catch (Exception e) {
-            System.out.println("Error zipping directory: " + e.getMessage());
-        }
-    }
-
-    public void rmdir() {
-        try {
             if (parser.getArgs().length != 1) {
-                System.out.println("Error: rmdir takes only one argument");
+                out.println("Error: rmdir takes only one argument");
                 return;
             }
             String arg = parser.getArgs()[0];
-            File dir = new File(arg);
+            File dir = resolve(arg).toFile();
             if (arg.equals("*")) {
-                File currentDir = new File(pwd());
-                File[] files = currentDir.listFiles();
-                if (files != null && files.length > 0) {
+                List<DirectoryCache.Entry> entries = DirectoryCache.shared().list(cwd);
+                if (!entries.isEmpty()) {
                     boolean foundEmpty = false;
-                    for (File f : files) {
-                        if (f.isDirectory() && f.list().length == 0) {
-                            if (f.delete()) {
-                                System.out.println("Deleted empty directory: " + f.getName());
+                    for (DirectoryCache.Entry entry : entries) {
+                        Path f = cwd.resolve(entry.name);
+                        if (entry.directory && isEmptyDirectory(f)) {
+                            if (f.toFile().delete()) {
+                                DirectoryCache.shared().changed(f);
+                                out.println("Deleted empty directory: " + entry.name);
                                 foundEmpty = true;
                             }
                         }
                     }
                     if (!foundEmpty)
-                        System.out.println("No empty directories found to delete.");
+                        out.println("No empty directories found to delete.");
                 } else {
-                    System.out.println("No directories found in current folder.");
+                    out.println("No directories found in current folder.");
                 }
                 return;
             }
             if (dir.isDirectory() && dir.exists()) {
                 if (dir.list().length == 0) {
-                    if (dir.delete())
-                        System.out.println("Directory deleted successfully.");
+                    if (dir.delete()) {
+                        DirectoryCache.shared().changed(dir.toPath());
+                        out.println("Directory deleted successfully.");
+                    }
                     else
-                        System.out.println("Error: Could not delete directory.");
+                        out.println("Error: Could not delete directory.");
                 } else {
-                    System.out.println("Directory not empty to delete.");
+                    out.println("Directory not empty to delete.");
                 }
             } else {
-                System.out.println("Error: Directory does not exist or invalid path.");
+                out.println("Error: Directory does not exist or invalid path.");
             }
         } catch (Exception e) {
-            System.out.println("Error in rmdir: " + e.getMessage());
+            out.println("Error in rmdir: " + e.getMessage());
+        }
+    }
+
+    // Stops at the first entry instead of listing the whole directory
+    private boolean isEmptyDirectory(Path dir) throws IOException {
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            return !entries.iterator().hasNext();
         }
     }
 
     public void cpDashR(Path source, Path destination) {
+        cpDashR(source, destination, Math.max(4, Runtime.getRuntime().availableProcessors()), false, false, false);
+    }
+
+    // cp -r : the tree is copied by TreeCopier on "threads" I/O threads; "incremental"
+    // only copies files that changed, comparing content hashes too when "useHash" is set,
+    // and "dedupe" hard-links files whose content was already copied
+    public void cpDashR(Path source, Path destination, int threads, boolean incremental, boolean useHash, boolean dedupe) {
         try {
-            Files.walk(source).forEach(src -> {
-                Path target = destination.resolve(source.relativize(src));
-                try {
-                    if (Files.isDirectory(src)) {
-                        if (Files.notExists(target)) {
-                            Files.createDirectories(target);
-                        }
-                    } else {
-                        Files.copy(src, target, StandardCopyOption.REPLACE_EXISTING);
-                    }
-                } catch (Exception e) {
-                    System.out.println("Error copying file: " + e.getMessage());
-                }
-            });
-            System.out.println("Copy completed successfully.");
+            if (Files.notExists(source))
+                throw new NoSuchFileException(source.toString());
+            TreeCopier copier = new TreeCopier(threads, incremental, useHash, dedupe, out);
+            Progress progress = progress();
+            copier.setProgress(progress);
+            int copied = copier.copy(source, destination);
+            DirectoryCache.shared().changedTree(destination);
+            if (progress.stoppedEarly())
+                out.println("Copy cancelled after " + copied + " files.");
+            else if (copier.failures() > 0)
+                out.println("Copied " + copied + " files, " + copier.failures() + " failed.");
+            else if (incremental)
+                out.println("Copy completed successfully. (" + copied + " copied, " + copier.skipped() + " unchanged"
+                        + (dedupe ? ", " + copier.linked() + " linked)" : ")"));
+            else if (dedupe)
+                out.println("Copy completed successfully. (" + copied + " copied, " + copier.linked() + " linked)");
+            else
+                out.println("Copy completed successfully.");
         } catch (Exception e) {
-            System.out.println("Error in cp -r: " + e.getMessage());
+            out.println("Error in cp -r: " + e.getMessage());
         }
     }
 
@@ -287,9 +334,12 @@ public class Terminal {
     public void cp(Path source, Path destination) {
         try {
             Files.copy(source, destination, StandardCopyOption.REPLACE_EXISTING);
-            System.out.println("Copy completed successfully");
+            countRead(Files.size(destination));
+            countWritten(Files.size(destination));
+            DirectoryCache.shared().changed(destination);
+            out.println("Copy completed successfully");
         } catch (Exception e) {
-            System.out.println("Error copying file: " + e.getMessage());
+            out.println("Error copying file: " + e.getMessage());
         }
     }
 
@@ -297,16 +347,17 @@ public class Terminal {
         try {
             String[] args = parser.getArgs();
             if (args.length != 1) {
-                System.out.println("Usage: touch <filename>");
+                out.println("Usage: touch <filename>");
                 return;
             }
-            File file = new File(args[0]);
+            File file = resolve(args[0]).toFile();
+            DirectoryCache.shared().changed(file.toPath());
             if (file.createNewFile())
-                System.out.println("File created: " + file.getName());
+                out.println("File created: " + file.getName());
             else
-                System.out.println("File already exists.");
+                out.println("File already exists.");
         } catch (Exception e) {
-            System.out.println("Error in touch: " + e.getMessage());
+            out.println("Error in touch: " + e.getMessage());
         }
     }
 
@@ -314,114 +365,291 @@ public class Terminal {
         try {
             String[] paths = parser.getArgs();
             if (paths[0].equals("-r")) {
-                if (paths.length != 3)
+                // cp -r [-pN] [-u] [--hash] [--dedupe] source destination
+                int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+                boolean incremental = false, useHash = false, dedupe = false;
+                int first = 1;
+                for (; first < paths.length && paths[first].startsWith("-"); first++) {
+                    if (paths[first].startsWith("-p") && paths[first].length() > 2)
+                        threads = Integer.parseInt(paths[first].substring(2));
+                    else if (paths[first].equals("-u"))
+                        incremental = true;
+                    else if (paths[first].equals("--hash"))
+                        incremental = useHash = true;
+                    else if (paths[first].equals("--dedupe"))
+                        dedupe = true;
+                    else
+                        throw new IllegalArgumentException("unknown option " + paths[first]);
+                }
+                if (paths.length - first != 2)
                     throw new IllegalArgumentException("invalid number of arguments");
-                Path source = Paths.get(paths[1]);
-                Path destination = Paths.get(paths[2]);
-                cpDashR(source, destination);
+                Path source = resolve(paths[first]);
+                Path destination = resolve(paths[first + 1]);
+                cpDashR(source, destination, threads, incremental, useHash, dedupe);
             } else {
                 if (paths.length != 2)
                     throw new IllegalArgumentException("invalid number of arguments");
-                Path source = Paths.get(paths[0]);
-                Path destination = Paths.get(paths[1]);
+                Path source = resolve(paths[0]);
+                Path destination = resolve(paths[1]);
                 cp(source, destination);
             }
         } catch (Exception e) {
-            System.out.println("Error in cp: " + e.getMessage());
+            out.println("Error in cp: " + e.getMessage());
         }
     }
 
-    // cat command : 
+    // cat command : streams the files as raw bytes, never holding a whole file in memory.
+    // Without file arguments inside a pipeline it copies the piped input instead.
     public void cat() {
         try {
             String[] args = parser.getArgs();
-            if (args.length == 0) {
-                System.out.println("Usage: cat <file> [file2...]");
+            int fileCount = args.length;
+            String operand = null;
+            if (endsWithRedirect(args)) {
+                operand = args[args.length - 2];
+                fileCount = args.length - 2;
+            }
+            if (fileCount == 0 && in == null) {
+                out.println("Usage: cat <file> [file2...]");
                 return;
             }
 
-            StringBuilder output = new StringBuilder();
-            for (String fileName : args) {
-                if (fileName.equals(">") || fileName.equals(">>")) break;
-                Path filePath = Paths.get(fileName);
-                if (!Files.exists(filePath)) {
-                    System.out.println("File not found: " + fileName);
+            Path[] files = new Path[fileCount];
+            for (int i = 0; i < fileCount; i++) {
+                files[i] = resolve(args[i]);
+                if (!Files.exists(files[i])) {
+                    out.println("File not found: " + args[i]);
                     return;
                 }
-                Files.lines(filePath).forEach(line -> output.append(line).append(System.lineSeparator()));
             }
 
-            if (!redirectOutput(output.toString(), args)) {
-                System.out.print(output.toString());
+            Progress progress = progress();
+            if (operand == null) {
+                printingData();
+                if (fileCount == 0)
+                    countRead(copy(in, out, progress));
+                for (Path file : files) {
+                    try (InputStream source = Files.newInputStream(file)) {
+                        countRead(copy(source, out, progress));
+                    }
+                }
+                out.flush();
+                return;
+            }
+
+            Path target = resolve(args[args.length - 1]);
+            for (Path file : files) {
+                if (Files.exists(target) && Files.isSameFile(file, target)) {
+                    out.println("Error in cat: input file is output file: " + target);
+                    return;
+                }
+            }
+            boolean append = operand.equals(">>");
+            if (fileCount == 0) {
+                // Piped input may take a while to arrive, so it is streamed in chunks rather
+                // than holding the writer thread
+                try (OutputStream sink = RedirectWriter.shared().stream(target, append, out)) {
+                    long copied = copy(in, sink, progress);
+                    countRead(copied);
+                    countWritten(copied);
+                }
+            } else {
+                RedirectWriter.shared().transfer(target, append, sink -> {
+                    for (Path file : files) {
+                        try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+                            transferFully(source, sink, progress);
+                        }
+                    }
+                });
+                for (Path file : files) {
+                    countRead(Files.size(file));
+                    countWritten(Files.size(file));
+                }
             }
+            DirectoryCache.shared().changed(target);
 
         } catch (Exception e) {
-            System.out.println("Error in cat: " + e.getMessage());
+            out.println("Error in cat: " + e.getMessage());
+        }
+    }
+
+    // Copies the whole channel with transferTo, which lets the OS move the bytes
+    // without passing them through a Java buffer. transferTo may copy less than
+    // asked for, so keep going until the source is exhausted. The copy goes in
+    // slices, so a cancelled background job stops between two of them.
+    private void transferFully(FileChannel source, WritableByteChannel sink, Progress progress) throws IOException {
+        long position = 0;
+        long size = source.size();
+        while (position < size && !progress.isCancelled()) {
+            long sent = source.transferTo(position, Math.min(size - position, TRANSFER_SLICE), sink);
+            if (sent <= 0) break;
+            position += sent;
+        }
+    }
+
+    // Copies a stream block by block until it ends or the background job is cancelled
+    private static long copy(InputStream from, OutputStream to, Progress progress) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        long copied = 0;
+        int read;
+        while ((read = from.read(buffer)) != -1 && !progress.isCancelled()) {
+            to.write(buffer, 0, read);
+            copied += read;
         }
+        return copied;
     }
 
 
-    // ls command
+    // ls command : ls [-l] [-R] [-S | -t] [-r] [dir]
+    // -l adds type, size and modification time, -R lists subdirectories too, -S and -t sort
+    // by size or time instead of name and -r reverses the order. Output is written as it is
+    // produced, straight into the file when redirected.
     public void ls() {
         try {
             String[] args = parser.getArgs();
-            StringBuilder output = new StringBuilder();
-
-            File currentDir = new File(System.getProperty("user.dir"));
-            File[] files = currentDir.listFiles();
+            int count = args.length;
+            String operand = null;
+            if (endsWithRedirect(args)) {
+                operand = args[args.length - 2];
+                count = args.length - 2;
+            }
 
-            if (files == null) {
-                System.out.println("Error reading directory");
+            boolean longFormat = false, recursive = false, reverse = false;
+            TreeLister.Sort sort = TreeLister.Sort.NAME;
+            Path dir = cwd;
+            for (int i = 0; i < count; i++) {
+                if (!args[i].startsWith("-") || args[i].length() == 1) {
+                    dir = resolve(args[i]);
+                    continue;
+                }
+                for (char flag : args[i].substring(1).toCharArray()) {
+                    switch (flag) {
+                        case 'l': longFormat = true; break;
+                        case 'R': recursive = true; break;
+                        case 'r': reverse = true; break;
+                        case 'S': sort = TreeLister.Sort.SIZE; break;
+                        case 't': sort = TreeLister.Sort.TIME; break;
+                        default:
+                            out.println("Error: unknown ls option -" + flag);
+                            return;
+                    }
+                }
+            }
+            if (!Files.isDirectory(dir)) {
+                out.println("Error reading directory");
                 return;
             }
 
-            for (File f : files) {
-                output.append(f.isDirectory() ? "[DIR]  " : "       ")
-                      .append(f.getName()).append("\n");
+            PrintStream target = operand == null ? out : openRedirect(operand, args[args.length - 1]);
+            try {
+                TreeLister lister = new TreeLister(longFormat, sort, reverse, target);
+                lister.setProgress(progress());
+                if (recursive)
+                    lister.listRecursive(dir);
+                else
+                    lister.list(dir);
+            } finally {
+                if (target != out) {
+                    target.close();
+                    DirectoryCache.shared().changed(resolve(args[args.length - 1]));
+                } else {
+                    out.flush();
+                }
             }
 
-            // Try redirect
-            if (!redirectOutput(output.toString(), args)) {
-                System.out.print(output.toString());
-            }
+        } catch (Exception e) {
+            out.println("Error in ls: " + e.getMessage());
+        }
+    }
 
+    // du command : du [-s] [dir]
+    // Prints the total size of each subdirectory and of the whole directory, or only the
+    // total with -s. All subdirectories are measured at the same time on the fork-join pool.
+    public void du() {
+        try {
+            String[] args = parser.getArgs();
+            boolean summary = false;
+            Path dir = cwd;
+            for (String arg : args) {
+                if (arg.equals("-s"))
+                    summary = true;
+                else
+                    dir = resolve(arg);
+            }
+            if (!Files.isDirectory(dir)) {
+                out.println("Error: directory does not exist: " + dir);
+                return;
+            }
+            if (summary) {
+                out.println(TreeLister.diskUsage(dir).join() + "\t" + dir);
+                return;
+            }
+            List<DirectoryCache.Entry> entries = DirectoryCache.shared().list(dir);
+            List<ForkJoinTask<Long>> sizes = new ArrayList<>();
+            long total = 0;
+            for (DirectoryCache.Entry entry : entries) {
+                if (entry.directory)
+                    sizes.add(TreeLister.diskUsage(dir.resolve(entry.name)));
+                else
+                    total += entry.size;
+            }
+            int next = 0;
+            for (DirectoryCache.Entry entry : entries) {
+                if (!entry.directory) continue;
+                long size = sizes.get(next++).join();
+                total += size;
+                out.println(size + "\t" + dir.resolve(entry.name));
+            }
+            out.println(total + "\t" + dir);
         } catch (Exception e) {
-            System.out.println("Error in ls: " + e.getMessage());
+            out.println("Error in du: " + e.getMessage());
         }
     }
 
     // wc command ==> Displays # of lines, words and chars in any file
+    // Files are counted in parallel by WordCount and printed in the order they were given
     public void wc() {
         try {
             String[] args = parser.getArgs();
+            if (args.length == 0 && in != null) {
+                WordCount.Counter counter = new WordCount.Counter();
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    counter.update(ByteBuffer.wrap(buffer, 0, read));
+                    countRead(read);
+                }
+                WordCount count = counter.finish();
+                out.println(count.lines + " " + count.words + " " + count.bytes);
+                return;
+            }
             if (args.length == 0) {
-                System.out.println("Usage: wc <filename>");
+                out.println("Usage: wc <filename>");
                 return;
             }
-            int totalLines = 0, totalWords = 0, totalBytes = 0;
-            for(String filename : args) {
-                File file = new File(filename);
-                if (!file.exists() || file.isDirectory()) {
-                    System.out.println("Error: file not found");
-                    return;
+            List<ForkJoinTask<WordCount>> counts = new ArrayList<>();
+            for (String filename : args) {
+                File file = resolve(filename).toFile();
+                if (file.exists() && !file.isDirectory()) {
+                    countRead(file.length());
+                    counts.add(ForkJoinPool.commonPool().submit(() -> WordCount.of(file.toPath())));
+                } else {
+                    counts.add(null);
                 }
-                int lines = 0, words = 0, bytes = 0;
-                try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-                    String line;
-                    while ((line = br.readLine()) != null) {
-                        lines++;
-                        totalLines++;
-                        words += line.split("\\s+").length;
-                        totalWords += line.split("\\s+").length;
-                        totalBytes+= line.getBytes().length + 1;
-                        bytes += line.getBytes().length + 1;
-                    }
+            }
+            WordCount total = new WordCount(0, 0, 0);
+            for (int i = 0; i < args.length; i++) {
+                if (counts.get(i) == null) {
+                    out.println("Error: file not found");
+                    return;
                 }
-            System.out.println(file + " " + lines + " " + words + " " + bytes + " ");
+                WordCount count = counts.get(i).join();
+                total = total.plus(count);
+                out.println(new File(args[i]) + " " + count.lines + " " + count.words + " " + count.bytes + " ");
             }
-            System.out.println("Total: " + totalLines + " " + totalWords + " " + totalBytes);
+            out.println("Total: " + total.lines + " " + total.words + " " + total.bytes);
         } catch (Exception e) {
-            System.out.println("Error in wc: " + e.getMessage());
+            out.println("Error in wc: " + e.getMessage());
         }
     }
 
@@ -429,7 +657,7 @@ public class Terminal {
         try {
             return s.contains("/") || s.contains("\\");
         } catch (Exception e) {
-            System.out.println("Error checking path: " + e.getMessage());
+            out.println("Error checking path: " + e.getMessage());
             return false;
         }
     }
@@ -438,127 +666,227 @@ public class Terminal {
         try {
             String[] args = parser.getArgs();
             for (String dir : args) {
-                File newDir;
-                if (isPath(dir))
-                    newDir = new File(dir);
-                else
-                    newDir = new File(System.getProperty("user.dir"), dir);
+                File newDir = resolve(dir).toFile();
+                // mkdirs may create several levels; the topmost new one is what changed
+                File topmost = newDir;
+                while (topmost.getParentFile() != null && !topmost.getParentFile().exists())
+                    topmost = topmost.getParentFile();
+                DirectoryCache.shared().changedTree(topmost.toPath());
 
                 if (newDir.exists())
-                    System.out.println("Directory already exists: " + newDir.getAbsolutePath());
+                    out.println("Directory already exists: " + newDir.getAbsolutePath());
                 else if (newDir.mkdirs())
-                    System.out.println("Directory created: " + newDir.getAbsolutePath());
+                    out.println("Directory created: " + newDir.getAbsolutePath());
                 else
-                    System.out.println("Failed to create: " + newDir.getAbsolutePath());
+                    out.println("Failed to create: " + newDir.getAbsolutePath());
             }
         } catch (Exception e) {
-            System.out.println("Error in mkdir: " + e.getMessage());
+            out.println("Error in mkdir: " + e.getMessage());
         }
     }
 
  // rm command ==> remove files from directories
+    // rm [-r] [-pN] <file1> <file2> ... : names may be globs such as *.log or build/out-?
+    // -r also deletes directories with everything in them, in parallel on N threads
     public void rm() {
-    String[] args = parser.getArgs();
-
-    if (args.length == 0) {
-        System.out.println("Usage: rm <file1> <file2> ...");
-        return;
-    }
-
-    for (String fileName : args) {
-        Path path = Paths.get(fileName);
-        try {
-            if (Files.notExists(path)) {
-                System.out.println("Error: " + fileName + " does not exist.");
-                continue;
+        String[] args = parser.getArgs();
+        boolean recursive = false;
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        int first = 0;
+        for (; first < args.length && args[first].startsWith("-") && args[first].length() > 1; first++) {
+            if (args[first].equals("-r") || args[first].equals("-rf")) {
+                recursive = true;
+            } else if (args[first].startsWith("-p") && args[first].length() > 2) {
+                threads = Integer.parseInt(args[first].substring(2));
+            } else {
+                out.println("Error: unknown rm option " + args[first]);
+                return;
             }
+        }
+        if (first == args.length) {
+            out.println("Usage: rm [-r] [-pN] <file1> <file2> ...");
+            return;
+        }
+        if (recursive) {
+            removeTrees(Arrays.copyOfRange(args, first, args.length), threads);
+            return;
+        }
 
-            if (Files.isDirectory(path)) {
-                System.out.println("Error: " + fileName + " is a directory. Use rm -r to delete directories.");
+        for (int i = first; i < args.length; i++) {
+            List<Path> matches;
+            try {
+                matches = expand(args[i]);
+            } catch (IOException e) {
+                out.println("I/O error deleting " + args[i] + ": " + e.getMessage());
                 continue;
             }
+            if (matches.isEmpty())
+                out.println("Error: no match for " + args[i]);
+            for (Path path : matches) {
+                String fileName = shownAs(args[i], path);
+                try {
+                    if (Files.notExists(path)) {
+                        out.println("Error: " + fileName + " does not exist.");
+                        continue;
+                    }
 
-            Files.delete(path);
-            System.out.println("Deleted: " + fileName);
+                    if (Files.isDirectory(path)) {
+                        out.println("Error: " + fileName + " is a directory. Use rm -r to delete directories.");
+                        continue;
+                    }
 
-        } catch (NoSuchFileException e) {
-            System.out.println("File not found: " + fileName);
-        } catch (DirectoryNotEmptyException e) {
-            System.out.println("Cannot delete directory (not empty): " + fileName);
-        } catch (IOException e) {
-            System.out.println("I/O error deleting " + fileName + ": " + e.getMessage());
-        } catch (SecurityException e) {
-            System.out.println("Permission denied deleting " + fileName);
+                    Files.delete(path);
+                    DirectoryCache.shared().changed(path);
+                    out.println("Deleted: " + fileName);
+
+                } catch (NoSuchFileException e) {
+                    out.println("File not found: " + fileName);
+                } catch (DirectoryNotEmptyException e) {
+                    out.println("Cannot delete directory (not empty): " + fileName);
+                } catch (IOException e) {
+                    out.println("I/O error deleting " + fileName + ": " + e.getMessage());
+                } catch (SecurityException e) {
+                    out.println("Permission denied deleting " + fileName);
+                }
+            }
         }
     }
-}
 
-
-    public void unzip() {
+    // rm -r and rmdir -r: TreeDeleter clears the matching trees bottom-up, then one summary line
+    private void removeTrees(String[] names, int threads) {
         try {
-            System.out.println("Arguments:");
-            String[] args = parser.getArgs();
-            String currentDir = System.getProperty("user.dir");
-            File dir;
-            if (args.length == 1) {
-                dir = new File(currentDir);
-            } else if (args.length > 1) {
-                String cleanedDest = args[args.length - 1].replace("\"", "");
-                dir = new File(cleanedDest);
-            } else {
-                throw new IllegalArgumentException("Usage: unzip <zip-file> [destination-folder]");
-            }
-
-            String zipFilePath = args[0].replace("\"", "");
-            Path zipPath = Paths.get(zipFilePath);
-            if (!Files.exists(zipPath)) {
-                throw new FileNotFoundException("ZIP file not found!");
-            }
-            if (!dir.exists()) {
-                Files.createDirectories(dir.toPath());
-            }
-            try (ZipInputStream zip = new ZipInputStream(new FileInputStream(zipPath.toFile()))) {
-                ZipEntry entry;
-                while ((entry = zip.getNextEntry()) != null) {
-                    Path newPath = dir.toPath().resolve(entry.getName());
-                    if (entry.isDirectory()) {
-                        Files.createDirectories(newPath);
-                    } else {
-                        if (newPath.getParent() != null) {
-                            Files.createDirectories(newPath.getParent());
-                        }
-                        Files.copy(zip, newPath, StandardCopyOption.REPLACE_EXISTING);
+            List<Path> roots = new ArrayList<>();
+            for (String name : names) {
+                List<Path> matches = expand(name);
+                if (matches.isEmpty() || Files.notExists(matches.get(0), LinkOption.NOFOLLOW_LINKS)) {
+                    out.println("Error: " + name + " does not exist.");
+                    continue;
+                }
+                for (Path match : matches) {
+                    if (cwd.toAbsolutePath().normalize().startsWith(match.toAbsolutePath().normalize())) {
+                        out.println("Error: refusing to delete " + name + ", it contains the working directory.");
+                        return;
                     }
-                    zip.closeEntry();
                 }
-                System.out.println("Unzip completed successfully!");
+                roots.addAll(matches);
             }
+            if (roots.isEmpty()) return;
+            TreeDeleter deleter = new TreeDeleter(threads, out);
+            Progress progress = progress();
+            deleter.setProgress(progress);
+            deleter.delete(roots);
+            for (Path root : roots) {
+                DirectoryCache.shared().changedTree(root);
+            }
+            String summary = "Removed " + deleter.files() + " files and " + deleter.directories() + " directories";
+            if (deleter.failures() > 0)
+                summary += " (" + deleter.failures() + " could not be deleted)";
+            if (progress.stoppedEarly())
+                summary += " before being cancelled";
+            out.println(summary);
         } catch (Exception e) {
-            System.out.println("Error in unzip: " + e.getMessage());
+            out.println("Error in rm -r: " + e.getMessage());
+        }
+    }
+
+    // Expands a glob in the last component of a path argument ("*.log", "build/out-?") into the
+    // matching paths, sorted by name; any other argument stands for itself
+    List<Path> expand(String arg) throws IOException {
+        Path path = resolve(arg);
+        Path name = path.getFileName();
+        if (name == null || !isGlob(name.toString())) return List.of(path);
+        List<Path> matches = new ArrayList<>();
+        Path parent = path.getParent() == null ? cwd : path.getParent();
+        if (!Files.isDirectory(parent)) return matches;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(parent, name.toString())) {
+            for (Path match : stream) {
+                matches.add(match);
+            }
+        }
+        Collections.sort(matches);
+        return matches;
+    }
+
+    // How a path found for a (glob) argument is shown: as typed, or relative to the working directory
+    String shownAs(String arg, Path match) {
+        return match.equals(resolve(arg)) ? arg : cwd.relativize(match).toString();
+    }
+
+    private static boolean isGlob(String name) {
+        for (char c : name.toCharArray()) {
+            if (c == '*' || c == '?' || c == '[' || c == '{') return true;
         }
+        return false;
     }
 
+
     public void chooseCommandAction() {
         try {
             String cmd = parser.getCommandName();
-            switch (cmd) {
-                case "echo": echo(); break;
-                case "pwd": System.out.println(pwd()); break;
-                case "rmdir": rmdir(); break;
-                case "cp": copy(); break;
-                case "cd": cd(parser.getArgs()); break;
-                case "zip": zip(); break;
-                case "ls": ls(); break;
-                case "touch": touch(); break;
-                case "cat": cat(); break;
-                case "wc": wc(); break;
-                case "mkdir": mkdir(); break;
-                case "rm": rm(); break;
-                case "unzip": unzip(); break;
-                default: System.out.println("Unknown command");
+            String[] all = parser.getArgs();
+            for (int i = 0; i < all.length; i++) {
+                if (!all[i].equals("&") || !parser.isOperator(i)) continue;
+                if (i == all.length - 1) {
+                    jobs().start(this);
+                } else {
+                    out.println("Error: & must end the command line");
+                }
+                return;
+            }
+            if (Pipeline.isPipeline(parser)) {
+                Pipeline.run(this, parser);
+                return;
+            }
+            Command command = CommandRegistry.shared().find(cmd);
+            if (command != null) {
+                // Queued redirections must land before a command looks at the files, and the
+                // cached handles must be closed before a command deletes or replaces them
+                switch (command.fileAccess()) {
+                    case READ: RedirectWriter.shared().sync(); break;
+                    case REPLACE: RedirectWriter.shared().release(); break;
+                    default: break;
+                }
+            }
+            CommandMetrics metrics = CommandMetrics.shared();
+            if (!metrics.isEnabled() || (command != null && !command.recordsMetrics())) {
+                dispatch(command);
+                return;
+            }
+            // Everything the command prints goes through a counting stream while it runs
+            PrintStream console = out;
+            invocation = metrics.begin(cmd);
+            out = new PrintStream(invocation.counting(console, true), false);
+            try {
+                dispatch(command);
+            } catch (Exception e) {
+                invocation.failed = true;
+                throw e;
+            } finally {
+                out.flush();
+                out = console;
+                metrics.end(invocation);
+                invocation = null;
             }
         } catch (Exception e) {
-            System.out.println("Error choosing command: " + e.getMessage());
+            out.println("Error choosing command: " + e.getMessage());
+        }
+    }
+
+    private void dispatch(Command command) throws Exception {
+        if (command == null) {
+            out.println("Unknown command");
+            if (invocation != null) invocation.failed = true;
+            return;
+        }
+        CommandContext context = new CommandContext(this, command);
+        try {
+            command.run(context);
+        } catch (LinkageError e) {
+            // A plugin command missing one of its classes fails alone, not the interpreter
+            out.println("Error in " + command.name() + ": " + e);
+            if (invocation != null) invocation.failed = true;
+        } finally {
+            context.finish();
         }
     }
                                      }
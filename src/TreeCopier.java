@@ -0,0 +1,324 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The {@code TreeCopier} class is the engine behind {@code cp -r}. It walks the source
+ * tree once, creating every destination directory on the way, and then copies the files
+ * on a work-stealing pool with a fixed number of I/O threads. Files from
+ * {@link #TRANSFER_THRESHOLD} up are copied with {@link FileChannel#transferTo} so their
+ * bytes never pass through a Java buffer. A file that fails is reported and the copy
+ * carries on with the rest.
+ *
+ * In incremental mode ({@code cp -r -u}) a file is only copied when it differs from the
+ * destination by size or modification time, or, with hashing on, by SHA-256 content hash.
+ * Copied files keep the source modification time, and a {@link CopyManifest} in the
+ * destination lets repeated syncs skip unchanged files after reading only source metadata.
+ *
+ * With deduplication on ({@code cp -r --dedupe}) files with identical content, found through
+ * the {@link HashCache}, are copied once; the other copies become hard links to that file.
+ *
+ * Finished files are counted on a {@link Progress}; when it is cancelled the remaining files
+ * are left out.
+ */
+public class TreeCopier {
+
+    static final long TRANSFER_THRESHOLD = 1024 * 1024;
+    // Files per leaf task; small trees of tiny files are not worth splitting further
+    private static final int BATCH_SIZE = 16;
+
+    private final int threads;
+    private final boolean incremental;
+    private final boolean useHash;
+    private final boolean dedupe;
+    private final PrintStream out;
+    private final AtomicInteger copied = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger linked = new AtomicInteger();
+    private CopyManifest manifest;
+    private Progress progress = new Progress();
+
+    public TreeCopier(int threads, PrintStream out) {
+        this(threads, false, false, out);
+    }
+
+    public TreeCopier(int threads, boolean incremental, boolean useHash, PrintStream out) {
+        this(threads, incremental, useHash, false, out);
+    }
+
+    public TreeCopier(int threads, boolean incremental, boolean useHash, boolean dedupe, PrintStream out) {
+        this.threads = Math.max(1, threads);
+        this.incremental = incremental;
+        this.useHash = useHash;
+        this.dedupe = dedupe;
+        this.out = out;
+    }
+
+    // Counts every file copied, linked or skipped; once cancelled no further files are copied
+    public void setProgress(Progress progress) {
+        this.progress = progress;
+    }
+
+    // A file found by the walk, with the size read during the walk
+    private static class FileCopy {
+        final String relativePath;
+        final Path source;
+        final Path target;
+        final long size;
+        final FileTime modified;
+        // Set once the target holds the source content, copied or found unchanged in this run
+        boolean done;
+
+        FileCopy(String relativePath, Path source, Path target, long size, FileTime modified) {
+            this.relativePath = relativePath;
+            this.source = source;
+            this.target = target;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+
+    // Copies the tree under source into destination and returns the number of files copied
+    public int copy(Path source, Path destination) throws IOException {
+        if (incremental)
+            manifest = CopyManifest.load(destination);
+        List<FileCopy> files = new ArrayList<>();
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Path target = destination.resolve(source.relativize(dir).toString());
+                if (Files.notExists(target)) {
+                    Files.createDirectories(target);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                String relativePath = source.relativize(file).toString();
+                if (relativePath.equals(CopyManifest.FILE_NAME)) return FileVisitResult.CONTINUE;
+                files.add(new FileCopy(relativePath, file, destination.resolve(relativePath),
+                        attrs.size(), attrs.lastModifiedTime()));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                out.println("Error copying file: " + e.getMessage());
+                failed.incrementAndGet();
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        // Duplicates wait until the file they repeat has been copied, then get linked to it
+        Map<FileCopy, FileCopy> links = new LinkedHashMap<>();
+        List<FileCopy> toCopy = files;
+        if (dedupe) {
+            Map<Path, FileCopy> bySource = new HashMap<>();
+            List<Path> sources = new ArrayList<>();
+            for (FileCopy file : files) {
+                bySource.put(file.source, file);
+                sources.add(file.source);
+            }
+            Map<Path, Path> duplicates = HashCache.shared().duplicates(sources, threads);
+            List<FileCopy> unique = new ArrayList<>();
+            for (FileCopy file : files) {
+                Path original = duplicates.get(file.source);
+                if (original != null)
+                    links.put(file, bySource.get(original));
+                else
+                    unique.add(file);
+            }
+            toCopy = unique;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new CopyTask(toCopy, 0, toCopy.size()));
+        } finally {
+            pool.shutdown();
+        }
+        for (Map.Entry<FileCopy, FileCopy> link : links.entrySet()) {
+            if (progress.isCancelled()) break;
+            link(link.getKey(), link.getValue());
+        }
+        if (manifest != null && Files.isDirectory(destination))
+            manifest.save();
+        if (useHash || dedupe)
+            HashCache.shared().save();
+        return copied.get();
+    }
+
+    public int failures() {
+        return failed.get();
+    }
+
+    public int skipped() {
+        return skipped.get();
+    }
+
+    public int linked() {
+        return linked.get();
+    }
+
+    // Copies files [from, to), splitting the range so idle workers can steal half of it
+    @SuppressWarnings("serial")
+    private class CopyTask extends RecursiveAction {
+        private final List<FileCopy> files;
+        private final int from;
+        private final int to;
+
+        CopyTask(List<FileCopy> files, int from, int to) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH_SIZE) {
+                for (int i = from; i < to; i++) {
+                    copyFile(files.get(i));
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new CopyTask(files, from, middle), new CopyTask(files, middle, to));
+        }
+    }
+
+    private void copyFile(FileCopy file) {
+        if (progress.isCancelled()) return;
+        try {
+            String hash = null;
+            if (incremental) {
+                BasicFileAttributes target = targetAttributes(file.target);
+                CopyManifest.Entry known = manifest.get(file.relativePath);
+                // The manifest only vouches for a destination file that is still the one it copied
+                boolean intact = known != null && target != null && target.size() == known.size
+                        && target.lastModifiedTime().toMillis() == known.modified;
+                if (intact && known.size == file.size) {
+                    if (known.modified == file.modified.toMillis()) {
+                        skip(file, known.hash, false);
+                        return;
+                    }
+                    // Touched but not changed: the content still hashes to what was copied last time
+                    if (useHash && known.hash != null) {
+                        hash = sha256(file.source);
+                        if (hash.equals(known.hash)) {
+                            skip(file, hash, true);
+                            return;
+                        }
+                    }
+                }
+                if (target != null) {
+                    if (target.size() == file.size) {
+                        if (target.lastModifiedTime().toMillis() == file.modified.toMillis()) {
+                            skip(file, useHash ? (hash != null ? hash : sha256(file.source)) : null, false);
+                            return;
+                        }
+                        if (useHash) {
+                            if (hash == null) hash = sha256(file.source);
+                            if (hash.equals(sha256(file.target))) {
+                                skip(file, hash, true);
+                                return;
+                            }
+                        }
+                    }
+                }
+                if (useHash && hash == null) hash = sha256(file.source);
+            }
+
+            if (file.size >= TRANSFER_THRESHOLD) {
+                try (FileChannel source = FileChannel.open(file.source, StandardOpenOption.READ);
+                     FileChannel target = FileChannel.open(file.target, StandardOpenOption.CREATE,
+                             StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    long position = 0;
+                    long size = source.size();
+                    while (position < size) {
+                        long sent = source.transferTo(position, size - position, target);
+                        if (sent <= 0) break;
+                        position += sent;
+                    }
+                }
+            } else {
+                Files.copy(file.source, file.target, StandardCopyOption.REPLACE_EXISTING);
+            }
+            if (incremental) {
+                Files.setLastModifiedTime(file.target, file.modified);
+                manifest.record(file.relativePath, file.size, file.modified.toMillis(), hash);
+            }
+            file.done = true;
+            copied.incrementAndGet();
+            progress.file(file.size);
+        } catch (Exception e) {
+            out.println("Error copying file: " + e.getMessage());
+            failed.incrementAndGet();
+        }
+    }
+
+    // Makes the copy of a duplicate a hard link to the copy of the file it repeats; where links
+    // are not possible (another file system, no support) it is copied after all. So is a duplicate
+    // whose original failed, since its target is missing or still holds older content
+    private void link(FileCopy file, FileCopy original) {
+        if (!original.done) {
+            copyFile(file);
+            return;
+        }
+        try {
+            if (Files.exists(file.target) && Files.exists(original.target) && Files.isSameFile(file.target, original.target)) {
+                if (incremental) skip(file, null, false);
+                return;
+            }
+            Files.deleteIfExists(file.target);
+            Files.createLink(file.target, original.target);
+            if (incremental)
+                manifest.record(file.relativePath, file.size, file.modified.toMillis(), null);
+            linked.incrementAndGet();
+            progress.file(file.size);
+        } catch (IOException | UnsupportedOperationException e) {
+            copyFile(file);
+        }
+    }
+
+    // The destination already has this content; "touch" brings its time in line with the source
+    private void skip(FileCopy file, String hash, boolean touch) throws IOException {
+        if (touch)
+            Files.setLastModifiedTime(file.target, file.modified);
+        manifest.record(file.relativePath, file.size, file.modified.toMillis(), hash);
+        file.done = true;
+        skipped.incrementAndGet();
+        progress.file(file.size);
+    }
+
+    // Attributes of the destination file, or null when it does not exist
+    private static BasicFileAttributes targetAttributes(Path target) throws IOException {
+        try {
+            return Files.readAttributes(target, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    static String sha256(Path file) throws IOException {
+        return HashCache.shared().hash(file, FileHasher.Algorithm.SHA256);
+    }
+}
@@ -0,0 +1,160 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The {@code TreeDeleter} class is the engine behind {@code rm -r} and {@code rmdir -r}. Every
+ * directory is handled by its own fork-join task, which deletes the files it contains (split
+ * into batches when there are many) while the tasks of its subdirectories run in parallel, and
+ * removes the directory itself once all of them are done, so the tree is cleared bottom-up.
+ *
+ * Symbolic links are deleted, never followed. Entries that cannot be deleted are counted, the
+ * first {@link #MAX_REPORTED} of them are reported, and the rest of the tree is still cleared.
+ * Deleted entries are counted on a {@link Progress}; when it is cancelled the tree is left
+ * partly deleted.
+ */
+public class TreeDeleter {
+
+    // Files per leaf task; deleting is cheap, so only large directories are split further
+    private static final int BATCH_SIZE = 256;
+    static final int MAX_REPORTED = 10;
+
+    private final int threads;
+    private final PrintStream out;
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong directories = new AtomicLong();
+    private final AtomicInteger failed = new AtomicInteger();
+    private Progress progress = new Progress();
+
+    public TreeDeleter(int threads, PrintStream out) {
+        this.threads = Math.max(1, threads);
+        this.out = out;
+    }
+
+    // Counts every deleted entry; once cancelled nothing more is deleted
+    public void setProgress(Progress progress) {
+        this.progress = progress;
+    }
+
+    // Deletes every path and, for directories, everything below them
+    public void delete(List<Path> roots) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<RecursiveAction> tasks = new ArrayList<>();
+            for (Path root : roots) {
+                tasks.add(isDirectory(root) ? new DirectoryTask(root) : new FileTask(List.of(root), 0, 1));
+            }
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(tasks);
+                }
+            });
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public long files() {
+        return files.get();
+    }
+
+    public long directories() {
+        return directories.get();
+    }
+
+    public int failures() {
+        return failed.get();
+    }
+
+    @SuppressWarnings("serial")
+    private class DirectoryTask extends RecursiveAction {
+        private final Path dir;
+
+        DirectoryTask(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected void compute() {
+            if (progress.isCancelled()) return;
+            List<Path> children = new ArrayList<>();
+            List<RecursiveAction> subtasks = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path child : stream) {
+                    if (isDirectory(child))
+                        subtasks.add(new DirectoryTask(child));
+                    else
+                        children.add(child);
+                }
+            } catch (IOException e) {
+                fail(dir, e);
+                return;
+            }
+            for (int from = 0; from < children.size(); from += BATCH_SIZE) {
+                subtasks.add(new FileTask(children, from, Math.min(children.size(), from + BATCH_SIZE)));
+            }
+            invokeAll(subtasks);
+            // A cancelled run leaves entries behind, so the directory is not empty; leave it too
+            if (progress.isCancelled()) return;
+            delete(dir, directories);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private class FileTask extends RecursiveAction {
+        private final List<Path> paths;
+        private final int from;
+        private final int to;
+
+        FileTask(List<Path> paths, int from, int to) {
+            this.paths = paths;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            for (int i = from; i < to && !progress.isCancelled(); i++) {
+                delete(paths.get(i), files);
+            }
+        }
+    }
+
+    private void delete(Path path, AtomicLong counter) {
+        try {
+            Files.delete(path);
+            counter.incrementAndGet();
+            progress.file(0);
+        } catch (NoSuchFileException e) {
+            // Already gone, e.g. removed by someone else meanwhile
+        } catch (IOException e) {
+            fail(path, e);
+        }
+    }
+
+    private void fail(Path path, IOException e) {
+        if (failed.incrementAndGet() <= MAX_REPORTED)
+            out.println("Error deleting " + path + ": " + e);
+    }
+
+    // A real directory; a link to a directory is deleted like a file
+    private static boolean isDirectory(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isDirectory();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,240 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The {@code TreeLister} class prints directory listings for {@code ls} and size totals
+ * for {@code du}. Entries come with their attributes from one bulk read per directory.
+ *
+ * For {@code ls -R} the calling thread prints the directories in depth-first order, while
+ * the next {@link #WINDOW} directories in that order are read ahead by fork-join tasks. Only
+ * that window of listings is held in memory, however large the tree. {@code du} sums file
+ * sizes with one fork-join task per directory. Symbolic links are never followed while
+ * recursing.
+ */
+public class TreeLister {
+
+    enum Sort { NAME, SIZE, TIME }
+
+    // Directories of ls -R read ahead of the one being printed
+    static final int WINDOW = 4 * Runtime.getRuntime().availableProcessors();
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+    private final boolean longFormat;
+    private final Sort sort;
+    private final boolean reverse;
+    private final PrintStream out;
+    private Progress progress = new Progress();
+
+    public TreeLister(boolean longFormat, Sort sort, boolean reverse, PrintStream out) {
+        this.longFormat = longFormat;
+        this.sort = sort;
+        this.reverse = reverse;
+        this.out = out;
+    }
+
+    // Checked before each directory of ls -R; once cancelled nothing more is read or printed
+    public void setProgress(Progress progress) {
+        this.progress = progress;
+    }
+
+    // ls [-l]: one directory, read through the shared DirectoryCache
+    public void list(Path dir) throws IOException {
+        printEntries(sorted(DirectoryCache.shared().list(dir)));
+    }
+
+    // ls -R: the directory and everything below it
+    public void listRecursive(Path dir) {
+        // The directories still to print, the next one first
+        Deque<ListingTask> upcoming = new ArrayDeque<>();
+        upcoming.push(new ListingTask(dir));
+        int ahead = 0;
+        boolean first = true;
+        while (!upcoming.isEmpty()) {
+            if (progress.isCancelled()) return;
+            // Read ahead in print order until the window is full; at most WINDOW of the
+            // directories passed over here are already forked, so this stays cheap
+            for (ListingTask task : upcoming) {
+                if (ahead >= WINDOW) break;
+                if (!task.forked) {
+                    task.forked = true;
+                    ForkJoinPool.commonPool().execute(task);
+                    ahead++;
+                }
+            }
+            ListingTask task = upcoming.pop();
+            Listing listing;
+            if (task.forked) {
+                listing = task.join();
+                ahead--;
+            } else {
+                listing = task.invoke();
+            }
+            print(listing, first);
+            first = false;
+            for (int i = listing.children.size() - 1; i >= 0; i--) {
+                upcoming.push(new ListingTask(listing.children.get(i)));
+            }
+        }
+    }
+
+    // du: total size in bytes of all files under dir, computed on the common fork-join pool
+    public static ForkJoinTask<Long> diskUsage(Path dir) {
+        return ForkJoinPool.commonPool().submit(new UsageTask(dir));
+    }
+
+    // Prints one directory block of ls -R
+    private void print(Listing listing, boolean first) {
+        if (!first) out.println();
+        out.println(listing.dir + ":");
+        if (listing.error != null) {
+            out.println("Error reading directory: " + listing.error);
+            return;
+        }
+        printEntries(listing.entries);
+    }
+
+    private void printEntries(List<DirectoryCache.Entry> entries) {
+        long total = 0;
+        for (DirectoryCache.Entry entry : entries) {
+            if (longFormat) {
+                String time = LocalDateTime.ofInstant(entry.modified.toInstant(), ZoneId.systemDefault()).format(TIME_FORMAT);
+                out.printf("%s %12d  %s  %s%n", entry.directory ? "d" : "-", entry.size, time, entry.name);
+                if (!entry.directory) total += entry.size;
+            } else {
+                out.println((entry.directory ? "[DIR]  " : "       ") + entry.name);
+            }
+        }
+        if (longFormat)
+            out.println("total " + total + " bytes in " + entries.size() + " entries");
+    }
+
+    private List<DirectoryCache.Entry> sorted(List<DirectoryCache.Entry> entries) {
+        Comparator<DirectoryCache.Entry> order;
+        switch (sort) {
+            case SIZE: order = Comparator.comparingLong((DirectoryCache.Entry e) -> e.size).reversed(); break;
+            case TIME: order = Comparator.comparing((DirectoryCache.Entry e) -> e.modified).reversed(); break;
+            default: order = Comparator.comparing((DirectoryCache.Entry e) -> e.name);
+        }
+        if (reverse) order = order.reversed();
+        List<DirectoryCache.Entry> result = new ArrayList<>(entries);
+        result.sort(order);
+        return result;
+    }
+
+    // A directory read by a ListingTask, with its subdirectories in print order
+    private static class Listing {
+        final Path dir;
+        final List<DirectoryCache.Entry> entries;
+        final List<Path> children;
+        final String error;
+
+        Listing(Path dir, List<DirectoryCache.Entry> entries, List<Path> children, String error) {
+            this.dir = dir;
+            this.entries = entries;
+            this.children = children;
+            this.error = error;
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private class ListingTask extends RecursiveTask<Listing> {
+        private final Path dir;
+        // Set once the task was handed to the pool to be read ahead
+        boolean forked;
+
+        ListingTask(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected Listing compute() {
+            List<DirectoryCache.Entry> entries = new ArrayList<>();
+            try {
+                for (Path child : children(dir)) {
+                    BasicFileAttributes attrs = attributes(child);
+                    if (attrs == null) continue;
+                    entries.add(new DirectoryCache.Entry(child.getFileName().toString(), attrs.isDirectory(),
+                            attrs.isSymbolicLink(), attrs.size(), attrs.lastModifiedTime()));
+                }
+            } catch (IOException e) {
+                return new Listing(dir, entries, new ArrayList<>(), e.getMessage());
+            }
+            entries = sorted(entries);
+            List<Path> children = new ArrayList<>();
+            for (DirectoryCache.Entry entry : entries) {
+                if (entry.directory) children.add(dir.resolve(entry.name));
+            }
+            return new Listing(dir, entries, children, null);
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static class UsageTask extends RecursiveTask<Long> {
+        private final Path dir;
+
+        UsageTask(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected Long compute() {
+            long total = 0;
+            List<UsageTask> subdirectories = new ArrayList<>();
+            try {
+                for (Path child : children(dir)) {
+                    BasicFileAttributes attrs = attributes(child);
+                    if (attrs == null) continue;
+                    if (attrs.isDirectory()) {
+                        UsageTask task = new UsageTask(child);
+                        task.fork();
+                        subdirectories.add(task);
+                    } else {
+                        total += attrs.size();
+                    }
+                }
+            } catch (IOException e) {
+                // An unreadable directory counts as empty
+            }
+            for (UsageTask task : subdirectories) {
+                total += task.join();
+            }
+            return total;
+        }
+    }
+
+    // Attributes of the entry itself (not a link target), or null when it vanished meanwhile
+    private static BasicFileAttributes attributes(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static List<Path> children(Path dir) throws IOException {
+        List<Path> children = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path child : stream) {
+                children.add(child);
+            }
+        }
+        return children;
+    }
+}
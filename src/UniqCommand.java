@@ -0,0 +1,78 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * {@code uniq [-c] [-d | -u] [file]} collapses runs of equal adjacent lines of a file, or of the
+ * piped input, into one. {@code -c} prefixes every line with the length of its run, {@code -d}
+ * prints only lines that were repeated and {@code -u} only lines that were not. Only the
+ * current line is held in memory, so input of any size streams through; put {@code sort} in
+ * front to count equal lines across the whole input.
+ */
+public class UniqCommand implements Command {
+
+    private static final String USAGE = "Usage: uniq [-c] [-d | -u] [file]";
+
+    @Override
+    public String name() {
+        return "uniq";
+    }
+
+    @Override
+    public void run(CommandContext context) throws IOException {
+        PrintStream out = context.out();
+        String[] args = context.args();
+        boolean count = false, repeated = false, single = false;
+        int first = 0;
+        for (; first < args.length && args[first].matches("-[cdu]+"); first++) {
+            count |= args[first].indexOf('c') > 0;
+            repeated |= args[first].indexOf('d') > 0;
+            single |= args[first].indexOf('u') > 0;
+        }
+        if (args.length - first > 1 || (first == args.length && context.in() == null)) {
+            out.println(USAGE);
+            return;
+        }
+
+        BufferedReader reader;
+        if (first == args.length) {
+            reader = new BufferedReader(new InputStreamReader(context.in(), StandardCharsets.UTF_8));
+        } else {
+            Path file = context.resolve(args[first]);
+            if (!Files.isRegularFile(file)) {
+                out.println("File not found: " + args[first]);
+                return;
+            }
+            reader = new BufferedReader(new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8), 64 * 1024);
+            context.terminal().countRead(Files.size(file));
+        }
+        context.terminal().printingData();
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+        try (reader) {
+            String previous = reader.readLine();
+            long run = 1;
+            while (previous != null) {
+                String line = reader.readLine();
+                if (line != null && line.equals(previous)) {
+                    run++;
+                    continue;
+                }
+                if (run > 1 ? !single : !repeated) {
+                    if (count) writer.write(String.format("%7d ", run));
+                    writer.write(previous);
+                    writer.write('\n');
+                }
+                previous = line;
+                run = 1;
+            }
+        }
+        writer.flush();
+    }
+}
@@ -0,0 +1,45 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@code wait [%n...]} returns once the given background jobs, or all of them, have finished.
+ */
+public class WaitCommand implements Command {
+
+    @Override
+    public String name() {
+        return "wait";
+    }
+
+    @Override
+    public void run(CommandContext context) throws InterruptedException {
+        PrintStream out = context.out();
+        JobTable table = context.terminal().jobs();
+        if (context.args().length == 0) {
+            table.awaitAll(context.terminal().progress);
+            return;
+        }
+        List<JobTable.Job> jobs = new ArrayList<>();
+        for (String arg : context.args()) {
+            JobTable.Job job = table.get(arg);
+            if (job == null) {
+                out.println("Error in wait: no such job " + arg);
+                return;
+            }
+            if (job.progress == context.terminal().progress) {
+                out.println("Error in wait: job " + arg + " cannot wait for itself");
+                return;
+            }
+            jobs.add(job);
+        }
+        for (JobTable.Job job : jobs) {
+            if (!table.await(job, context.terminal().progress)) return;
+        }
+    }
+
+    @Override
+    public FileAccess fileAccess() {
+        return FileAccess.NONE;
+    }
+}
@@ -0,0 +1,135 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The {@code WordCount} class is the counting engine behind the {@code wc} command.
+ * A file is memory-mapped in line-aligned chunks (see {@link FileChunks}), the chunks
+ * are counted on the fork-join pool straight from the mapped bytes and the partial
+ * results are added together.
+ *
+ * The counts follow the rules {@code wc} always used: a line ends at '\n', '\r' or
+ * "\r\n", its words are {@code line.split("\\s+").length} and its bytes are the line
+ * length plus one for the line break.
+ */
+public class WordCount {
+    final long lines;
+    final long words;
+    final long bytes;
+
+    public WordCount(long lines, long words, long bytes) {
+        this.lines = lines;
+        this.words = words;
+        this.bytes = bytes;
+    }
+
+    public WordCount plus(WordCount other) {
+        return new WordCount(lines + other.lines, words + other.words, bytes + other.bytes);
+    }
+
+    // Counts a whole file, splitting it across the common fork-join pool
+    public static WordCount of(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[] bounds = FileChunks.split(channel, FileChunks.DEFAULT_CHUNK_SIZE);
+            return new ChunkTask(channel, bounds, 0, bounds.length - 1).invoke();
+        }
+    }
+
+    // Counts chunks [from, to) of the file, halving the range until one chunk is left
+    @SuppressWarnings("serial")
+    private static class ChunkTask extends RecursiveTask<WordCount> {
+        private final FileChannel channel;
+        private final long[] bounds;
+        private final int from;
+        private final int to;
+
+        ChunkTask(FileChannel channel, long[] bounds, int from, int to) {
+            this.channel = channel;
+            this.bounds = bounds;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected WordCount compute() {
+            if (to - from == 1) {
+                try {
+                    Counter counter = new Counter();
+                    if (bounds[to] > bounds[from])
+                        counter.update(FileChunks.map(channel, bounds[from], bounds[to]));
+                    return counter.finish();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            int middle = (from + to) >>> 1;
+            ChunkTask left = new ChunkTask(channel, bounds, from, middle);
+            left.fork();
+            WordCount right = new ChunkTask(channel, bounds, middle, to).compute();
+            return left.join().plus(right);
+        }
+    }
+
+    /**
+     * Byte-level line/word/byte counter. It keeps just enough state about the
+     * current line to reproduce {@code split("\\s+")} without building strings.
+     */
+    static class Counter {
+        private long lines, words, bytes;
+        private long lineLength;
+        private long runs;
+        private boolean leadingSpace;
+        private boolean inWord;
+        private boolean skipLineFeed;
+
+        void update(ByteBuffer buffer) {
+            for (int i = buffer.position(), end = buffer.limit(); i < end; i++) {
+                accept(buffer.get(i));
+            }
+        }
+
+        private void accept(byte b) {
+            if (skipLineFeed) {
+                skipLineFeed = false;
+                if (b == '\n') return;
+            }
+            if (b == '\n' || b == '\r') {
+                endLine();
+                skipLineFeed = b == '\r';
+                return;
+            }
+            lineLength++;
+            if (b == ' ' || b == '\t' || b == 0x0B || b == '\f') {
+                if (lineLength == 1) leadingSpace = true;
+                inWord = false;
+            } else if (!inWord) {
+                inWord = true;
+                runs++;
+            }
+        }
+
+        private void endLine() {
+            lines++;
+            bytes += lineLength + 1;
+            // "".split gives one empty word, an all-blank line gives none, and a
+            // leading blank adds an empty first word
+            if (lineLength == 0)
+                words += 1;
+            else if (runs > 0)
+                words += runs + (leadingSpace ? 1 : 0);
+            lineLength = 0;
+            runs = 0;
+            leadingSpace = false;
+            inWord = false;
+        }
+
+        WordCount finish() {
+            if (lineLength > 0) endLine();
+            return new WordCount(lines, words, bytes);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ExternalSortTest {
+
+    @TempDir
+    Path temp;
+
+    // Enough lines for more than MAX_FAN_IN runs at the smallest run budget, so runs are merged in groups
+    private static final int LINES = 1_200_000;
+    private static final int KEYS = 5000;
+
+    @Test
+    void uniqueKeepsTheFirstLineOfEachKeyAcrossMergedGroups() throws IOException {
+        StringBuilder input = new StringBuilder();
+        Map<String, String> first = new TreeMap<>();
+        Random random = new Random(1);
+        for (int i = 0; i < LINES; i++) {
+            String key = "k" + random.nextInt(KEYS);
+            String line = key + " " + i;
+            input.append(line).append('\n');
+            first.putIfAbsent(key, line);
+        }
+        StringBuilder expected = new StringBuilder();
+        for (String line : first.values()) expected.append(line).append('\n');
+
+        StringWriter output = new StringWriter();
+        try (ExternalSort sort = new ExternalSort(ExternalSort.keyOrder(1, 1, null, false), false, true, 1, 1, temp)) {
+            sort.add(new BufferedReader(new StringReader(input.toString())));
+            assertEquals(first.size(), sort.finish(output));
+        }
+        assertEquals(expected.toString(), output.toString());
+    }
+
+    @Test
+    void cancelledSortWritesNothing() throws IOException {
+        Progress progress = new Progress();
+        StringWriter output = new StringWriter();
+        try (ExternalSort sort = new ExternalSort(ExternalSort.keyOrder(1, 0, null, false), false, false, 1, 1, temp)) {
+            sort.setProgress(progress);
+            sort.add(new BufferedReader(new StringReader("b\na\nc\n")));
+            progress.cancel();
+            assertEquals(0, sort.finish(output));
+        }
+        assertEquals("", output.toString());
+        assertEquals(true, progress.stoppedEarly());
+    }
+}